@@ -19,81 +19,51 @@ public class Alpha extends SimpleRobot {
 	public final DualAction driver = new DualAction( 1, 0.1 );
 	public final DualAction shooter = new DualAction( 2, 0.1 );
 	private static volatile boolean enabled;
-	//Dashboard connection
-	private Dash dash;
-	private boolean tryingToConnect = false;
-
-	public static boolean isRobotEnabled() {
-		return enabled;
-	}
+	//Dashboard connection, kept up by its own thread
+	private final DashboardLink link = new DashboardLink( "10.1.51.5", new Dash.ConnectionListener() {
+		public void onConnect() {
+			System.out.println( "[Connected]" );
+		}
 
-	/**
-	 * Attempts to establish a connection the the dashboard
-	 */
-	private void connectToDashboard() {
-		if ( tryingToConnect ) {
-			return;
+		public void onDisconnect() {
+			System.out.println( "[Disconnected]" );
 		}
-		tryingToConnect = true;
-		new Thread() {
-			public void run() {
-				try {
-					//Try to create a new dashboard connection
-					if ( tryingToConnect && dash == null ) {
-						dash = new Dash( "10.1.51.5", new Dash.ConnectionListener() {
-							public void onConnect() {
-								System.out.println( "[Connected]" );
-							}
 
-							public void onDisconnect() {
-								System.out.println( "[Disconnected]" );
-							}
+		public void onDataReceived( String msg ) {
+			System.out.println( "[MSG " + msg + "]" );
+		}
+	} );
 
-							public void onDataReceived( String msg ) {
-								System.out.println( "[MSG " + msg + "]" );
-							}
-						} );
-					}
-				} catch ( IOException ex ) { //Thrown if the connection attempt failed
-					System.out.println( "[ERR Failed to connect to dashboard: " + ex.getMessage() + "]" );
-					dash = null;
-				}
-				tryingToConnect = false;
-			}
-		}.start();
+	public static boolean isRobotEnabled() {
+		return enabled;
 	}
 
 	public void robotInit() {
-		//Initial attempt to connect to the dashboard
-		connectToDashboard();
+		//Connect to the dashboard and reconnect whenever the connection is lost
+		link.start();
 		/*
-		 * Tests the connection to the dashboard every 100ms and tries to
-		 * reestablish the connection if the test fails
+		 * Sends the state of every subsystem to the dashboard every 10ms while
+		 * connected
 		 */
 		new Timer().scheduleAtFixedRate( new TimerTask() {
-			int failedCount = 0;
-
 			public void run() {
 				enabled = isEnabled();
-				if ( dash != null ) { //If a connection is already made
+				Dash dash = link.getDash();
+				if ( dash == null ) {
+					return;
+				}
+				try {
+					//Send everything from this tick as one frame
+					dash.beginBatch();
 					try {
 						DriveTrain.getInstance().updateDashboard( dash );
 						Shooter.getInstance().updateDashboard( dash );
 						updateStatus( dash );
-
-						failedCount = 0;
-					} catch ( IOException ex ) { //Thrown if the message failed to send
-						System.out.println( "Failed to update dashboard: " + ex.getMessage() );
-						//Allow up to 3 connection failures before destroying the connection
-						if ( ++failedCount <= 3 ) {
-							failedCount = 0;
-							dash = null; //End the connection
-							connectToDashboard(); //Try to reestablish the connection
-						}
+					} finally {
+						dash.endBatch();
 					}
-				} else { //If no connection exists, create a connection
-					failedCount = 0;
-					connectToDashboard();
+				} catch ( IOException ex ) { //Thrown once the connection is lost, the link reconnects
+					System.out.println( "Failed to update dashboard: " + ex.getMessage() );
 				}
 			}
 		}, 1, 10 );
@@ -112,6 +82,8 @@ public class Alpha extends SimpleRobot {
 	public void autonomous() {
 		try {
 			long startTime = System.currentTimeMillis();
+			//Ask whether the goal is hot now and check the answer after driving up to it
+			PendingQuery hot = queryTargetHot();
 			DriveTrain.getInstance().init();
 			Shooter.getInstance().init();
 			Shooter.getInstance().windWinch( shooter );
@@ -119,6 +91,9 @@ public class Alpha extends SimpleRobot {
 			while ( !Shooter.getInstance().isLoaded() && System.currentTimeMillis() - startTime < 7000 ) {
 				Thread.sleep( 1 );
 			}
+			if ( hot != null ) {
+				System.out.println( "[Goal hot: " + Dash.isTargetHot( hot ) + "]" );
+			}
 //          Shooter.getInstance().fire( shooter );
 		} catch ( InterruptedException ex ) {
 			ex.printStackTrace();
@@ -142,12 +117,38 @@ public class Alpha extends SimpleRobot {
 	}
 
 	public void test() {
+		PendingQuery hot = null;
 		while ( isEnabled() && isTest() ) {
+			//Print each answer and ask again, without waiting on the dashboard
+			if ( hot == null ) {
+				hot = queryTargetHot();
+			} else if ( hot.isDone() ) {
+				System.out.println( hot.hasReply() ? hot.getValue() : "[No reply]" );
+				hot = null;
+			}
 			try {
-				System.out.println( dash.queryTargetHot() );
-			} catch ( IOException ex ) {
+				Thread.sleep( 20 );
+			} catch ( InterruptedException ex ) {
 				ex.printStackTrace();
 			}
 		}
 	}
+
+	/**
+	 * Asks the dashboard whether the goal is hot without waiting for the answer
+	 *
+	 * @return The query, or null if there is no connection
+	 */
+	private PendingQuery queryTargetHot() {
+		Dash d = link.getDash();
+		if ( d == null ) {
+			return null;
+		}
+		try {
+			return d.queryTargetHotAsync();
+		} catch ( IOException ex ) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
 }
@@ -6,9 +6,18 @@ import edu.wpi.first.wpilibj.Relay;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.Timer;
+import java.util.TimerTask;
 import javax.microedition.io.Connector;
 import javax.microedition.io.SocketConnection;
+import org.nashua.tt151.libraries.parsers.Framing;
+import org.nashua.tt151.libraries.parsers.Handshake;
+import org.nashua.tt151.libraries.parsers.Heartbeat;
+import org.nashua.tt151.libraries.parsers.HeartbeatMonitor;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+import org.nashua.tt151.libraries.parsers.ParsingException;
 import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+import org.nashua.tt151.libraries.parsers.ValueParser;
 import org.nashua.tt151.util.MathTools;
 
 /**
@@ -23,6 +32,53 @@ public class Dash {
 	 * Connection object that holds the connection to the dashboard.
 	 */
 	private Connection con;
+	/**
+	 * How long a channel can go unsent before it is sent anyway, and how long
+	 * before its registration is sent again, so a dashboard that missed an
+	 * update or lost the channel's ID catches up
+	 */
+	private static final long REFRESH_INTERVAL = 1000;
+	/**
+	 * How long a query waits for the dashboard to reply, in milliseconds
+	 */
+	public static final long QUERY_TIMEOUT = 250;
+	/**
+	 * Last values sent for each key. Changes smaller than the epsilon are not
+	 * worth sending: 2% of motor output, 0.05 on an analog reading, and any
+	 * change at all for digital IO (values are sent rounded to 0.01) and relays
+	 */
+	private final ChannelCache pwmCache = new ChannelCache( 0.02 );
+	private final ChannelCache analogCache = new ChannelCache( 0.05 );
+	private final ChannelCache digitalCache = new ChannelCache( 0.005 );
+	private final ChannelCache relayCache = new ChannelCache( 0.5 );
+	private final ChannelCache statusCache = new ChannelCache( 0.5 );
+	/**
+	 * Number of channel updates sent and skipped as unchanged
+	 */
+	private volatile int sentCount;
+	private volatile int skippedCount;
+	/**
+	 * Updates and messages waiting for the sending thread
+	 */
+	private final TelemetryQueue telemetry = new TelemetryQueue();
+	/**
+	 * Last channel ID handed out. IDs start at 1 and are only valid for this
+	 * connection.
+	 */
+	private int channelCount;
+	/**
+	 * IP Address of the laptop
+	 */
+	private final String host;
+	/**
+	 * Telemetry datagrams, opened once the dashboard agrees to UDP. Only the
+	 * sending thread uses it.
+	 */
+	private DatagramSender datagrams;
+	/**
+	 * Set if datagrams could not be sent, everything then stays on TCP
+	 */
+	private boolean datagramsFailed;
 
 	/**
 	 * Connection from cRIO to laptop
@@ -32,7 +88,291 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public Dash( String host, ConnectionListener cl ) throws IOException {
-		con = new Connection( host, 1735, cl );
+		this( host, cl, Heartbeat.DEFAULT_INTERVAL, Heartbeat.DEFAULT_MISSED_BEATS );
+	}
+
+	/**
+	 * Constructor for the dashboard class
+	 *
+	 * @param host              IP Address of the laptop
+	 * @param cl                Listener for this connection
+	 * @param heartbeatInterval Milliseconds between heartbeats
+	 * @param missedBeats       Heartbeats in a row the dashboard can miss
+	 *                          before the connection is closed
+	 * @throws IOException
+	 */
+	public Dash( String host, ConnectionListener cl, int heartbeatInterval, int missedBeats ) throws IOException {
+		this.host = host;
+		con = new Connection( host, 1735, cl, telemetry, new HeartbeatMonitor( heartbeatInterval, missedBeats ) );
+
+		// Only this thread writes to the socket, so a slow link never holds
+		// up the threads producing updates
+		new Thread() {
+			public void run() {
+				transmit();
+			}
+		}.start();
+	}
+
+	/**
+	 * Sends whatever is waiting in the telemetry queue until the connection
+	 * fails. Critical messages go first, then the latest value of every
+	 * channel that changed, all in one batch. If the dashboard agreed to
+	 * UDP, channel updates go in a datagram instead, except the first update
+	 * of a channel, which carries its ID and has to arrive.
+	 */
+	private void transmit() {
+		TelemetryQueue.Channel[] channels = new TelemetryQueue.Channel[telemetry.getCapacity()];
+		for ( int i = 0; i < channels.length; i++ ) {
+			channels[i] = new TelemetryQueue.Channel();
+		}
+		try {
+			while ( telemetry.await() ) {
+				con.beginBatch();
+				try {
+					String msg;
+					while ( ( msg = telemetry.takeCritical() ) != null ) {
+						con.send( msg );
+					}
+					DatagramSender udp = getDatagramSender();
+					int n = telemetry.drain( channels );
+					for ( int i = 0; i < n; i++ ) {
+						sendChannel( channels[i], udp );
+					}
+					flushDatagram();
+				} finally {
+					con.endBatch();
+				}
+			}
+		} catch ( IOException e ) {
+			telemetry.close( e );
+			// Make sure the reader thread notices too and reports the disconnect
+			con.close();
+		} catch ( InterruptedException e ) {
+			telemetry.close( null );
+		}
+		if ( datagrams != null ) {
+			datagrams.close();
+		}
+	}
+
+	/**
+	 * @return The datagram sender, or null if telemetry goes over TCP
+	 */
+	private DatagramSender getDatagramSender() {
+		if ( datagrams == null && !datagramsFailed && ( con.getCapabilities() & Handshake.UDP ) != 0 ) {
+			try {
+				datagrams = new DatagramSender( host, 1735 );
+			} catch ( IOException e ) {
+				System.err.println( "[ERR UDP telemetry unavailable: " + e.getMessage() + "]" );
+				datagramsFailed = true;
+			}
+		}
+		return datagrams;
+	}
+
+	/**
+	 * Sends a channel update in a datagram if udp is not null, otherwise or
+	 * if that fails over TCP
+	 */
+	private void sendChannelMessage( String msg, DatagramSender udp ) throws IOException {
+		if ( udp != null && datagrams != null ) {
+			try {
+				if ( udp.send( msg ) ) {
+					return;
+				}
+			} catch ( IOException e ) {
+				closeDatagrams( e );
+			}
+		}
+		con.send( msg );
+	}
+
+	/**
+	 * Encodes a FastFormat channel update straight into a datagram if udp is
+	 * not null
+	 *
+	 * @return False if the update has to be sent over TCP instead
+	 */
+	private boolean sendFastDatagram( ProtocolParsing.Key key, ProtocolParsing.Value val, double value, String[] args, DatagramSender udp ) throws ParsingException {
+		if ( udp != null && datagrams != null ) {
+			try {
+				return udp.send( ProtocolParsing.Command.Send, key, val, value, args );
+			} catch ( IOException e ) {
+				closeDatagrams( e );
+			}
+		}
+		return false;
+	}
+
+	private void flushDatagram() {
+		if ( datagrams != null ) {
+			try {
+				datagrams.flush();
+			} catch ( IOException e ) {
+				closeDatagrams( e );
+			}
+		}
+	}
+
+	/**
+	 * Stops using UDP after a datagram could not be sent
+	 */
+	private void closeDatagrams( IOException e ) {
+		System.err.println( "[ERR UDP telemetry failed, using TCP: " + e.getMessage() + "]" );
+		datagrams.close();
+		datagrams = null;
+		datagramsFailed = true;
+	}
+
+	/**
+	 * @return Number of telemetry datagrams sent
+	 */
+	public int getDatagramCount() {
+		DatagramSender udp = datagrams;
+		return udp == null ? 0 : udp.getSentCount();
+	}
+
+	/**
+	 * Holds the updates made from here to endBatch so they are sent
+	 * together. Every call must be paired with endBatch.
+	 */
+	public void beginBatch() {
+		telemetry.hold();
+	}
+
+	/**
+	 * Lets the sending thread send everything since beginBatch as one frame
+	 *
+	 * @throws IOException If sending has failed, so the connection is gone
+	 */
+	public void endBatch() throws IOException {
+		telemetry.release();
+	}
+
+	/**
+	 * @return The capabilities agreed with the dashboard (see Handshake), 0
+	 *         until the dashboard answers the hello
+	 */
+	public int getCapabilities() {
+		return con.getCapabilities();
+	}
+
+	/**
+	 * @return Number of channel updates that were sent
+	 */
+	public int getSentCount() {
+		return sentCount;
+	}
+
+	/**
+	 * @return Number of channel updates skipped because the value had not changed
+	 */
+	public int getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * @return Number of channel updates replaced by a newer value before
+	 *         they could be sent
+	 */
+	public int getCoalescedCount() {
+		return telemetry.getCoalescedCount();
+	}
+
+	/**
+	 * @return Number of updates and messages thrown away because the
+	 *         connection was lost
+	 */
+	public int getDroppedCount() {
+		return telemetry.getDroppedCount();
+	}
+
+	/**
+	 * Forces every channel to be sent on its next update
+	 */
+	public void refreshAll() {
+		pwmCache.clear();
+		analogCache.clear();
+		digitalCache.clear();
+		relayCache.clear();
+		statusCache.clear();
+	}
+
+	/**
+	 * @return The cache for a key's channels
+	 */
+	private ChannelCache getCache( ProtocolParsing.Key key ) {
+		if ( key == ProtocolParsing.Key.PWMValue ) {
+			return pwmCache;
+		} else if ( key == ProtocolParsing.Key.AnalogValue ) {
+			return analogCache;
+		} else if ( key == ProtocolParsing.Key.DigitalIO ) {
+			return digitalCache;
+		}
+		return relayCache;
+	}
+
+	/**
+	 * Sends an update for one channel if it changed. Called by the sending
+	 * thread with the latest value of the channel. The first update on a
+	 * channel registers it: the full name, slot and type are sent along with
+	 * an ID, for example S:PV:0.5:Right 1,1,T,3. Updates after that only
+	 * carry the ID, for example S:PV:0.5:3, until REFRESH_INTERVAL after the
+	 * registration, when it is sent again. IDs are only used once the
+	 * dashboard has agreed to them, and numeric values are sent in FastFormat
+	 * when the dashboard supports it and the value fits.
+	 *
+	 * @param channel The channel and its value
+	 * @param udp Where to send updates that can be lost, or null to send
+	 *            them over TCP
+	 * @throws IOException
+	 */
+	private void sendChannel( TelemetryQueue.Channel channel, DatagramSender udp ) throws IOException {
+		ProtocolParsing.Key key = channel.key;
+		int slot = channel.slot;
+		double value = channel.value;
+		String name = channel.name;
+		char type = channel.type;
+		ChannelCache cache = getCache( key );
+		int action = cache.update( slot, value, name, type, System.currentTimeMillis() );
+		if ( action == ChannelCache.SKIP ) {
+			skippedCount++;
+			return;
+		}
+		sentCount++;
+		int capabilities = con.getCapabilities();
+		String[] args = null;
+		if ( ( capabilities & Handshake.IDS ) != 0 && cache.hasSlot( slot ) ) {
+			if ( cache.getIdArgs( slot ) == null ) {
+				// IDs were agreed after the channel was first sent
+				cache.setId( slot, ++channelCount );
+				action = ChannelCache.REGISTER;
+			}
+			String id = cache.getIdArgs( slot )[0];
+			args = action == ChannelCache.REGISTER ? new String[] { name, "" + slot, "" + type, id } : cache.getIdArgs( slot );
+		} else {
+			args = new String[] { name, "" + slot, "" + type };
+		}
+		if ( action == ChannelCache.REGISTER ) {
+			udp = null;
+		}
+		if ( channel.numeric && ( capabilities & Handshake.FAST ) != 0 ) {
+			ProtocolParsing.Value val = ProtocolParsing.FastParser.getSmallestValueType( value );
+			if ( val != null ) {
+				try {
+					if ( sendFastDatagram( key, val, value, args, udp ) ) {
+						return;
+					}
+					// The connection's writer takes Strings
+					sendChannelMessage( Framing.FAST + ProtocolParsing.FastParser.createMessage( ProtocolParsing.Command.Send, key, val, value, args ), null );
+					return;
+				} catch ( ParsingException e ) {
+					// Send it as StringFormat instead
+				}
+			}
+		}
+		sendChannelMessage( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, key, channel.valueString, args ), udp );
 	}
 
 	public void logMatchInfo() throws IOException {
@@ -40,37 +380,106 @@ public class Dash {
 	}
 
 	public void logMessage( String msg ) throws IOException {
-		con.send( "LOG:" + msg );
+		telemetry.putCritical( "LOG:" + msg );
 	}
 
+	/**
+	 * Asks the dashboard how far to turn to face the target and waits for
+	 * the answer
+	 *
+	 * @return The angle, or -1 if there was no reply in time
+	 */
 	public double queryCameraTurnAngle() throws NumberFormatException, IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Query, ProtocolParsing.Key.CamTurnAngle, "", new String[] {} ) );
-		// Wait for result
-		String[][] result = null;
-		while ( result == null ) {
-			result = con.getKeyFromQueue( ProtocolParsing.Key.CamTurnAngle );
-		}
-		// Verify non null value and parse the double from the string
-		if ( result.length > 1 && result[1].length > 0 ) {
-			return Double.parseDouble( result[1][0] );
-		}
-		// Return -1 on null result
-		return -1;
+		return getCameraTurnAngle( queryCameraTurnAngleAsync() );
 	}
-	
+
+	/**
+	 * Asks the dashboard whether the goal is hot and waits for the answer
+	 *
+	 * @return False if there was no reply in time
+	 */
 	public boolean queryTargetHot() throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Query, ProtocolParsing.Key.TargetHot, "", new String[] {} ) );
-		// Wait for result
-		String[][] result = null;
-		while ( result == null ) {
-			result = con.getKeyFromQueue( ProtocolParsing.Key.TargetHot );
-		}
-		// Verify non null value and parse the boolean from the string
-		if ( result.length > 1 && result[1].length > 0 ) {
-			return result[1][0].equals( "1" );
+		return isTargetHot( queryTargetHotAsync() );
+	}
+
+	/**
+	 * Same as queryCameraTurnAngle without waiting. Pass the query to
+	 * getCameraTurnAngle once it is done.
+	 */
+	public PendingQuery queryCameraTurnAngleAsync() throws IOException {
+		return sendQuery( ProtocolParsing.Key.CamTurnAngle );
+	}
+
+	/**
+	 * Same as queryTargetHot without waiting. Pass the query to isTargetHot
+	 * once it is done.
+	 */
+	public PendingQuery queryTargetHotAsync() throws IOException {
+		return sendQuery( ProtocolParsing.Key.TargetHot );
+	}
+
+	/**
+	 * Waits for a turn angle query if it is not done yet
+	 *
+	 * @return The angle, or -1 if there was no reply in time
+	 */
+	public static double getCameraTurnAngle( PendingQuery query ) throws NumberFormatException {
+		ReplyMailbox.Reply reply = query.waitForReply();
+		return reply == null ? -1 : Double.parseDouble( reply.getValue() );
+	}
+
+	/**
+	 * Waits for a hot goal query if it is not done yet
+	 *
+	 * @return False if there was no reply in time
+	 */
+	public static boolean isTargetHot( PendingQuery query ) {
+		ReplyMailbox.Reply reply = query.waitForReply();
+		return reply != null && reply.getValue().equals( "1" );
+	}
+
+	/**
+	 * Sends a query without waiting for the reply. Several queries can be
+	 * sent before waiting for any of them, inside one batch if they should
+	 * go out together:
+	 *
+	 * <pre>
+	 * dash.beginBatch();
+	 * PendingQuery hot = dash.queryTargetHotAsync();
+	 * PendingQuery angle = dash.queryCameraTurnAngleAsync();
+	 * dash.endBatch();
+	 * </pre>
+	 *
+	 * The query times out QUERY_TIMEOUT after it is sent.
+	 *
+	 * @param key Key to query
+	 * @return The query, which is done once its reply arrives or it times out
+	 * @throws IOException
+	 */
+	public PendingQuery sendQuery( ProtocolParsing.Key key ) throws IOException {
+		PendingQuery query = con.replies.expect( key, QUERY_TIMEOUT );
+		String[] args = new String[] {};
+		if ( ( con.getCapabilities() & Handshake.SEQUENCE ) != 0 ) {
+			args = new String[] { String.valueOf( query.getSequence() ) };
 		}
-		// Return false on null result
-		return false;
+		telemetry.putCritical( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Query, key, "", args ) );
+		return query;
+	}
+
+	/**
+	 * @return The mailbox query replies are delivered to, which counts
+	 *         timeouts and stale replies and keeps round trip times
+	 */
+	public ReplyMailbox getReplies() {
+		return con.replies;
+	}
+
+	/**
+	 * @return The robot's heartbeats, which keep round trip percentiles,
+	 *         jitter and the offset of the dashboard's clock
+	 */
+	public HeartbeatMonitor getHeartbeat() {
+		return con.heartbeat;
 	}
 
 	/**
@@ -83,7 +492,8 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendAnalog( double value, String name, int slot, AnalogType at ) throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.AnalogValue, "" + MathTools.round( value, 2 ), new String[] { name, "" + slot, at.toString() } ) );
+		value = MathTools.round( value, 2 );
+		telemetry.put( ProtocolParsing.Key.AnalogValue, slot, value, "" + value, true, name, at.shorthand );
 	}
 
 	/**
@@ -96,7 +506,8 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendPWM( double value, String name, int slot, PWMType pt ) throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.PWMValue, "" + MathTools.round( value, 2 ), new String[] { name, "" + slot, pt.toString() } ) );
+		value = MathTools.round( value, 2 );
+		telemetry.put( ProtocolParsing.Key.PWMValue, slot, value, "" + value, true, name, pt.shorthand );
 	}
 
 	/**
@@ -109,7 +520,7 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendRelay( Relay.Value v, String name, int slot, Relay.Direction dir ) throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.RelayValue, "" + new char[] { '0', '+', '+', '-' }[v.value], new String[] { name, "" + slot, "" + new char[] { 'B', '+', '-' }[dir.value] } ) );
+		telemetry.put( ProtocolParsing.Key.RelayValue, slot, v.value, "" + new char[] { '0', '+', '+', '-' }[v.value], false, name, new char[] { 'B', '+', '-' }[dir.value] );
 	}
 
 	/**
@@ -122,7 +533,8 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendDigitalIO( double value, String name, int slot, DIGIOType dt ) throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.DigitalIO, "" + MathTools.round( value, 2 ), new String[] { name, "" + slot, dt.toString() } ) );
+		value = MathTools.round( value, 2 );
+		telemetry.put( ProtocolParsing.Key.DigitalIO, slot, value, "" + value, true, name, dt.shorthand );
 	}
 
 	/**
@@ -132,7 +544,12 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendStatus( Status s ) throws IOException {
-		con.send( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.Status, s.toString(), new String[] {} ) );
+		if ( statusCache.update( 0, s.shorthand, "", s.shorthand, System.currentTimeMillis() ) == ChannelCache.SKIP ) {
+			skippedCount++;
+			return;
+		}
+		sentCount++;
+		telemetry.putCritical( ProtocolParsing.StringParser.createMessage( ProtocolParsing.Command.Send, ProtocolParsing.Key.Status, s.toString(), new String[] {} ) );
 	}
 
 	/**
@@ -142,7 +559,7 @@ public class Dash {
 	 * @throws IOException
 	 */
 	public void sendRaw( String msg ) throws IOException {
-		con.send( msg );
+		telemetry.putCritical( msg );
 	}
 
 	/**
@@ -353,6 +770,91 @@ public class Dash {
 		}
 	}
 
+	/**
+	 * The value, name, type and ID last sent on each slot of one key
+	 */
+	private static class ChannelCache {
+		/**
+		 * Results of update
+		 */
+		public static final int SKIP = 0;
+		public static final int SEND = 1;
+		public static final int REGISTER = 2;
+		/**
+		 * Slots are numbered from 1 and no module has more than 14
+		 */
+		private static final int SLOTS = 16;
+		private final double epsilon;
+		private final double[] values = new double[SLOTS];
+		private final String[] names = new String[SLOTS];
+		private final char[] types = new char[SLOTS];
+		private final long[] sentAt = new long[SLOTS];
+		private final long[] registeredAt = new long[SLOTS];
+		/**
+		 * Args array of an ID only update for each registered slot, built once
+		 */
+		private final String[][] idArgs = new String[SLOTS][];
+
+		/**
+		 * @param epsilon Smallest change in value that is sent
+		 */
+		public ChannelCache( double epsilon ) {
+			this.epsilon = epsilon;
+		}
+
+		/**
+		 * Records an update if it should be sent. An update is sent if the
+		 * value moved by at least epsilon or REFRESH_INTERVAL has passed since
+		 * the last send. The channel needs to be registered if the slot has
+		 * never been sent, its name or type changed, or REFRESH_INTERVAL has
+		 * passed since it was last registered.
+		 *
+		 * @return SKIP, SEND or REGISTER
+		 */
+		public synchronized int update( int slot, double value, String name, char type, long now ) {
+			if ( !hasSlot( slot ) ) {
+				return REGISTER;
+			}
+			boolean known = names[slot] != null && types[slot] == type && names[slot].equals( name );
+			if ( known && now - sentAt[slot] < REFRESH_INTERVAL && Math.abs( value - values[slot] ) < epsilon ) {
+				return SKIP;
+			}
+			values[slot] = value;
+			names[slot] = name;
+			types[slot] = type;
+			sentAt[slot] = now;
+			if ( known && now - registeredAt[slot] < REFRESH_INTERVAL ) {
+				return SEND;
+			}
+			registeredAt[slot] = now;
+			return REGISTER;
+		}
+
+		public boolean hasSlot( int slot ) {
+			return slot >= 0 && slot < SLOTS;
+		}
+
+		public synchronized void setId( int slot, int id ) {
+			idArgs[slot] = new String[] { "" + id };
+		}
+
+		/**
+		 * @return The args of an ID only update, or null if the slot has no ID
+		 */
+		public synchronized String[] getIdArgs( int slot ) {
+			return hasSlot( slot ) ? idArgs[slot] : null;
+		}
+
+		/**
+		 * Forgets every slot so each is sent on its next update
+		 */
+		public synchronized void clear() {
+			for ( int i = 0; i < SLOTS; i++ ) {
+				names[i] = null;
+			}
+		}
+	}
+
 	/**
 	 * The ConnectionListener interface has the method declarations for the
 	 * methods that get called when an event happens on the communication
@@ -392,7 +894,7 @@ public class Dash {
 		 * Socket connection between the laptop and the cRIO. This is the client
 		 * side.
 		 */
-		private SocketConnection socket;
+		private volatile SocketConnection socket;
 		/**
 		 * Reader for the input stream. The input stream is to the cRIO
 		 */
@@ -402,126 +904,208 @@ public class Dash {
 		 */
 		private BufferedWriter writer;
 		/**
-		 * Queue of queried items
+		 * Replies to queries. Filled by the reader thread while a query waits
+		 * for it on another.
+		 */
+		private final ReplyMailbox replies = new ReplyMailbox();
+		/**
+		 * Tokenizer reused for every message read by the reader thread
 		 */
-		private String[][][] queue = new String[0][0][0];
+		private final MessageCursor cursor = new MessageCursor();
+		/**
+		 * Characters of the frame being read, a frame's length fits in one
+		 * byte
+		 */
+		private final char[] frame = new char[256];
+		/**
+		 * Frames collected since beginBatch, after room for the batch header
+		 */
+		private final char[] batch = new char[Framing.BATCH_HEADER_LENGTH + Framing.MAX_BATCH_LENGTH];
+		/**
+		 * Index after the last frame in batch
+		 */
+		private int batchEnd = Framing.BATCH_HEADER_LENGTH;
+		/**
+		 * Number of frames in batch
+		 */
+		private int batchCount;
+		/**
+		 * True between beginBatch and endBatch
+		 */
+		private boolean batching;
+		/**
+		 * Capabilities agreed with the dashboard, none until it answers the
+		 * hello
+		 */
+		private int capabilities;
+		/**
+		 * Where heartbeats and echoes are queued for the sending thread
+		 */
+		private final TelemetryQueue outbox;
+		/**
+		 * Heartbeats this end sends, and when the dashboard was last heard
+		 */
+		private final HeartbeatMonitor heartbeat;
+		/**
+		 * Sends heartbeats and closes the connection once the dashboard has
+		 * been silent too long
+		 */
+		private final Timer timer = new Timer();
 
 		/**
 		 * Establish a client connection from the cRIO to the dashboard
 		 *
-		 * @param host IP Address of laptop
-		 * @param port Port that the dashboard is listening on
-		 * @param cl   Listener for this connection
+		 * @param host      IP Address of laptop
+		 * @param port      Port that the dashboard is listening on
+		 * @param cl        Listener for this connection
+		 * @param outbox    Queue of the thread that sends to the dashboard
+		 * @param heartbeat Heartbeat settings
 		 * @throws IOException
 		 */
-		public Connection( String host, int port, ConnectionListener cl ) throws IOException {
+		public Connection( String host, int port, ConnectionListener cl, TelemetryQueue outbox, HeartbeatMonitor heartbeat ) throws IOException {
 			// Set listener if null to this (dummy) or if not null to the listener
 			listener = cl == null ? this : cl;
+			this.outbox = outbox;
+			this.heartbeat = heartbeat;
 
 			// Connect to server (in this case the dashboard on the laptop)
 			socket = ( SocketConnection ) Connector.open( "socket://" + host + ":" + port );
+			// Every write is already a whole batch, waiting to fill a packet
+			// only delays it
+			socket.setSocketOption( SocketConnection.DELAY, 0 );
 			reader = new InputStreamReader( socket.openDataInputStream() );
 			writer = new BufferedWriter( new OutputStreamWriter( socket.openDataOutputStream() ) );
 
-			// Listen for events every 10ms
-			final java.util.Timer t = new java.util.Timer();
-			t.schedule( new java.util.TimerTask() {
+			// Offer everything, the dashboard answers with what it supports
+			send( Handshake.createMessage( Handshake.ALL ) );
+
+			listener.onConnect();
+
+			// Read on a thread of its own that waits for the dashboard to send
+			// something, so every message is handled as soon as it arrives
+			new Thread() {
 				public void run() {
-					if ( socket == null ) {
-						t.cancel();
-						return;
-					}
-					try {
-						if ( reader.ready() ) {
-							// Read length byte
-							int length = reader.read();
-							// Read for length bytes
-							int offset = 0;
-							char[] buffer = new char[length];
-							while ( length != 0 ) {
-								int read = reader.read( buffer, offset, length );
-								offset += read;
-								length -= read;
-								if ( read == -1 ) {
-									break;
-								}
-							}
-							// Turn buffer into String
-							String msg = String.valueOf( buffer );
-							// Check to see if disconnected
-							if ( msg.equals( "[Disconnected]" ) ) {
-								socket = null;
-								reader = null;
-								writer = null;
-								listener.onDisconnect();
-							} else if ( ProtocolParsing.StringParser.isReply( msg ) ) {
-								// Add reply to the queue
-								String key = ProtocolParsing.StringParser.getKey( msg ).shorthand;
-								String value = ProtocolParsing.StringParser.getValue( msg );
-								String[] args = ProtocolParsing.StringParser.getArgs( msg );
-								updateQueue( key, value, args );
-							} else {
-								// Send to the connection listener
-								listener.onDataReceived( msg );
-							}
-						}
-					} catch ( IOException e ) {
-						System.err.println( e.getClass() + ": " + e.getMessage() );
-					}
+					listen();
 				}
-			}, 1, 10 );
+			}.start();
 
-			listener.onConnect();
+			timer.schedule( new TimerTask() {
+				public void run() {
+					beat();
+				}
+			}, heartbeat.getInterval(), heartbeat.getInterval() );
 		}
 
 		/**
-		 * Remove all null indices from queue and shrink down to size
+		 * Send a heartbeat, or close the connection if the dashboard has
+		 * missed too many. Runs on the timer thread.
 		 */
-		private void cleanQueue() {
-			// Remove null indices from queue
-			int nc = 0;
-			for ( int i = 0; i < queue.length; i++ ) {
-				if ( queue[i] == null ) {
-					nc++;
-				}
+		private void beat() {
+			if ( ( getCapabilities() & Handshake.HEARTBEAT ) == 0 ) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if ( heartbeat.isDead( now ) ) {
+				System.err.println( "[ERR Nothing from the dashboard for " + heartbeat.getTimeout() + " ms]" );
+				close();
+				return;
 			}
-			String[][][] newQueue = new String[queue.length - nc][3][0];
-			int index = 0;
-			for ( int i = 0; i < queue.length; i++ ) {
-				if ( queue[i] != null ) {
-					newQueue[index++] = queue[i];
+			try {
+				outbox.putCritical( heartbeat.createBeat( now ) );
+			} catch ( IOException e ) {
+				close();
+			}
+		}
+
+		/**
+		 * Close the socket, which wakes the reader thread so it reports the
+		 * disconnect
+		 */
+		private void close() {
+			SocketConnection s = socket;
+			if ( s != null ) {
+				try {
+					s.close();
+				} catch ( IOException e ) {
 				}
 			}
 		}
 
 		/**
-		 * Retrieve a key from the queue
-		 *
-		 * @param key Key to retrieve
-		 * @return The value (and args) that correspond to the key or null if
-		 *         not found
+		 * Read frames until the dashboard says goodbye or the connection is
+		 * lost. Runs on the reader thread.
 		 */
-		public String[][] getKeyFromQueue( ProtocolParsing.Key key ) {
-			return getKeyFromQueue( key.shorthand );
+		private void listen() {
+			try {
+				while ( socket != null ) {
+					// Read length byte
+					int length = reader.read();
+					if ( length == -1 ) {
+						break;
+					}
+					// Read for length bytes
+					int offset = 0;
+					while ( offset < length ) {
+						int read = reader.read( frame, offset, length - offset );
+						if ( read == -1 ) {
+							break;
+						}
+						offset += read;
+					}
+					if ( offset < length ) {
+						break;
+					}
+					heartbeat.onReceive( System.currentTimeMillis() );
+					String msg = new String( frame, 0, length );
+					// Check to see if disconnected
+					if ( msg.equals( "[Disconnected]" ) ) {
+						break;
+					}
+					receive( msg );
+				}
+			} catch ( IOException e ) {
+				System.err.println( e.getClass() + ": " + e.getMessage() );
+			}
+			socket = null;
+			reader = null;
+			synchronized ( this ) {
+				// Not while a send is using it, the next send fails instead
+				writer = null;
+			}
+			timer.cancel();
+			// Stops the sending thread, later sends on this connection throw
+			outbox.close( new IOException( "Disconnected from the dashboard" ) );
+			replies.clear();
+			listener.onDisconnect();
 		}
 
 		/**
-		 * Retrieve a key from the queue
+		 * Handle one message from the dashboard
 		 *
-		 * @param key Key to retrieve
-		 * @return The value (and args) that correspond to the key or null if
-		 *         not found
-		 */
-		public String[][] getKeyFromQueue( String key ) {
-			for ( int i = 0; i < queue.length; i++ ) {
-				if ( queue[i] != null && queue[i][0] != null && queue[i][0][0].equals( key ) ) {
-					String[][] value = queue[i];
-					queue[i] = null;
-					cleanQueue();
-					return value;
+		 * @param msg Message received
+		 */
+		private void receive( String msg ) {
+			if ( Handshake.isHello( msg ) ) {
+				setCapabilities( Handshake.ALL & Handshake.getCapabilities( msg ) );
+			} else if ( Heartbeat.isBeat( msg ) ) {
+				// Answer straight away, the dashboard times the round trip
+				try {
+					outbox.putCritical( Heartbeat.createEcho( msg, System.currentTimeMillis() ) );
+				} catch ( IOException e ) {
+				}
+			} else if ( Heartbeat.isEcho( msg ) ) {
+				heartbeat.onEcho( msg, System.currentTimeMillis() );
+			} else if ( cursor.reset( msg ) && cursor.getCommand() == ProtocolParsing.Command.Reply && cursor.getKey() != null ) {
+				// Wake the query waiting for it
+				int sequence = -1;
+				if ( cursor.getArgCount() > 0 ) {
+					sequence = ValueParser.ParseInt( msg, cursor.getArgStart( 0 ), cursor.getArgEnd( 0 ) );
 				}
+				replies.put( cursor.getKey(), sequence, cursor.getValue(), cursor.getArgs() );
+			} else {
+				// Send to the connection listener
+				listener.onDataReceived( msg );
 			}
-			return null;
 		}
 
 		/**
@@ -545,30 +1129,84 @@ public class Dash {
 		}
 
 		/**
-		 * Send message to the dashboard
+		 * Send message to the dashboard. While a batch is open the message is
+		 * added to it and written on endBatch.
 		 *
 		 * @param msg Message to send
 		 * @throws IOException
 		 */
-		public void send( String msg ) throws IOException {
-			writer.write( "" + ( char ) msg.length() );
-			writer.write( msg );
+		public synchronized void send( String msg ) throws IOException {
+			if ( writer == null ) {
+				throw new IOException( "Disconnected from the dashboard" );
+			}
+			if ( !batching ) {
+				writer.write( "" + ( char ) msg.length() );
+				writer.write( msg );
+				writer.flush();
+				return;
+			}
+			if ( batchEnd + Framing.getFrameLength( msg ) > batch.length ) {
+				// Batch is full, send what is there and start a new one
+				writeBatch();
+			}
+			if ( Framing.BATCH_HEADER_LENGTH + Framing.getFrameLength( msg ) > batch.length ) {
+				// Too long for any batch
+				writer.write( "" + ( char ) msg.length() );
+				writer.write( msg );
+				return;
+			}
+			batchEnd = Framing.writeFrame( batch, batchEnd, msg );
+			batchCount++;
+		}
+
+		/**
+		 * Start collecting messages into a batch, if the dashboard understands
+		 * batches
+		 */
+		public synchronized void beginBatch() {
+			batching = ( capabilities & Handshake.BATCH ) != 0;
+		}
+
+		public synchronized int getCapabilities() {
+			return capabilities;
+		}
+
+		private synchronized void setCapabilities( int capabilities ) {
+			this.capabilities = capabilities;
+		}
+
+		/**
+		 * Write the open batch and flush once
+		 *
+		 * @throws IOException
+		 */
+		public synchronized void endBatch() throws IOException {
+			batching = false;
+			if ( writer == null ) {
+				throw new IOException( "Disconnected from the dashboard" );
+			}
+			writeBatch();
 			writer.flush();
 		}
 
 		/**
-		 * Add item to the queue
+		 * Write the collected frames without flushing. A lone message is sent
+		 * as a normal frame since a batch header would only add to it.
 		 *
-		 * @param key  Key of the queued item
-		 * @param val  Value of the queued item
-		 * @param args Arguments of the queued item
-		 */
-		private void updateQueue( String key, String val, String[] args ) {
-			String[][][] newQueue = new String[queue.length + 1][3][0];
-			System.arraycopy( queue, 0, newQueue, 0, queue.length );
-			newQueue[queue.length] = new String[][] { new String[] { key }, new String[] { val }, args };
-			queue = newQueue;
-			cleanQueue();
+		 * @throws IOException
+		 */
+		private void writeBatch() throws IOException {
+			int start = Framing.BATCH_HEADER_LENGTH;
+			if ( batchCount > 1 ) {
+				start = 0;
+				Framing.writeBatchHeader( batch, start, batchEnd - Framing.BATCH_HEADER_LENGTH );
+			}
+			int end = batchEnd;
+			batchEnd = Framing.BATCH_HEADER_LENGTH;
+			batchCount = 0;
+			if ( end > start ) {
+				writer.write( batch, start, end - start );
+			}
 		}
 	}
 }
@@ -0,0 +1,243 @@
+package edu.wpi.first.wpilibj.templates;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Keeps the robot connected to the dashboard. One thread connects, waits for
+ * the connection to be lost and connects again. When an attempt fails it
+ * waits before the next one, doubling the wait each time up to MAX_BACKOFF
+ * with some randomness, so a missing laptop costs one blocked thread instead
+ * of a new thread and socket every tick. Code sending telemetry only checks
+ * isConnected or getDash and never has to reconnect itself.
+ */
+public class DashboardLink {
+	/**
+	 * Where the link is in connecting
+	 */
+	public static final class State {
+		/**
+		 * Not started yet, or stopped
+		 */
+		public static final State IDLE = new State( "IDLE" );
+		/**
+		 * Opening the connection
+		 */
+		public static final State CONNECTING = new State( "CONNECTING" );
+		/**
+		 * Connected, getDash returns the connection
+		 */
+		public static final State CONNECTED = new State( "CONNECTED" );
+		/**
+		 * Waiting before the next attempt
+		 */
+		public static final State BACKOFF = new State( "BACKOFF" );
+
+		private final String name;
+
+		private State( String name ) {
+			this.name = name;
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Milliseconds to wait after the first failed attempt or a lost
+	 * connection
+	 */
+	public static final long MIN_BACKOFF = 250;
+	/**
+	 * Longest wait between attempts in milliseconds
+	 */
+	public static final long MAX_BACKOFF = 8000;
+
+	private final String host;
+	private final Dash.ConnectionListener listener;
+	private final Random random = new Random();
+	private volatile State state = State.IDLE;
+	private volatile Dash dash;
+	private Thread thread;
+	/**
+	 * Set by the connection's reader thread when the connection is lost
+	 */
+	private boolean lost;
+	private int attemptCount;
+	private int failureCount;
+	private int connectCount;
+	private long connectedAt;
+	private long totalUptime;
+	private String lastError;
+
+	/**
+	 * @param host IP Address of the laptop
+	 * @param cl   Listener for every connection made, may be null
+	 */
+	public DashboardLink( String host, Dash.ConnectionListener cl ) {
+		this.host = host;
+		this.listener = cl;
+	}
+
+	/**
+	 * Starts the thread that connects, if it is not running yet
+	 */
+	public synchronized void start() {
+		if ( thread != null ) {
+			return;
+		}
+		thread = new Thread() {
+			public void run() {
+				manage();
+			}
+		};
+		thread.start();
+	}
+
+	/**
+	 * Connects and reconnects until the thread is interrupted. Runs on the
+	 * link's thread.
+	 */
+	private void manage() {
+		long backoff = MIN_BACKOFF;
+		try {
+			while ( true ) {
+				state = State.CONNECTING;
+				synchronized ( this ) {
+					attemptCount++;
+					lost = false;
+				}
+				Dash d;
+				try {
+					d = new Dash( host, new Dash.ConnectionListener() {
+						public void onConnect() {
+							if ( listener != null ) {
+								listener.onConnect();
+							}
+						}
+
+						public void onDisconnect() {
+							synchronized ( DashboardLink.this ) {
+								lost = true;
+								DashboardLink.this.notifyAll();
+							}
+							if ( listener != null ) {
+								listener.onDisconnect();
+							}
+						}
+
+						public void onDataReceived( String msg ) {
+							if ( listener != null ) {
+								listener.onDataReceived( msg );
+							}
+						}
+					} );
+				} catch ( IOException e ) {
+					synchronized ( this ) {
+						failureCount++;
+						lastError = e.getMessage();
+					}
+					state = State.BACKOFF;
+					Thread.sleep( jitter( backoff ) );
+					backoff = Math.min( backoff * 2, MAX_BACKOFF );
+					continue;
+				}
+
+				backoff = MIN_BACKOFF;
+				synchronized ( this ) {
+					connectCount++;
+					connectedAt = System.currentTimeMillis();
+				}
+				dash = d;
+				state = State.CONNECTED;
+				try {
+					d.logMessage( "Link " + toString() );
+				} catch ( IOException e ) {
+				}
+
+				synchronized ( this ) {
+					while ( !lost ) {
+						wait();
+					}
+					totalUptime += System.currentTimeMillis() - connectedAt;
+					connectedAt = 0;
+				}
+				dash = null;
+				state = State.BACKOFF;
+				Thread.sleep( jitter( backoff ) );
+			}
+		} catch ( InterruptedException e ) {
+			state = State.IDLE;
+		}
+	}
+
+	/**
+	 * @return A wait between half and all of backoff, so robots restarted
+	 *         together do not retry together
+	 */
+	private long jitter( long backoff ) {
+		return backoff / 2 + random.nextInt( (int) ( backoff / 2 ) + 1 );
+	}
+
+	/**
+	 * @return The connection, or null if there is none right now
+	 */
+	public Dash getDash() {
+		return dash;
+	}
+
+	public boolean isConnected() {
+		return dash != null;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Number of times a connection was attempted
+	 */
+	public synchronized int getAttemptCount() {
+		return attemptCount;
+	}
+
+	/**
+	 * @return Number of attempts that failed
+	 */
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @return Number of connections made
+	 */
+	public synchronized int getConnectCount() {
+		return connectCount;
+	}
+
+	/**
+	 * @return Milliseconds the current connection has been up, 0 if there is none
+	 */
+	public synchronized long getUptime() {
+		return connectedAt == 0 ? 0 : System.currentTimeMillis() - connectedAt;
+	}
+
+	/**
+	 * @return Milliseconds connected over every connection, including this one
+	 */
+	public synchronized long getTotalUptime() {
+		return totalUptime + getUptime();
+	}
+
+	/**
+	 * @return Why the last attempt failed, or null if none has
+	 */
+	public synchronized String getLastError() {
+		return lastError;
+	}
+
+	public synchronized String toString() {
+		return state + " attempts=" + attemptCount + " failures=" + failureCount + " connects=" + connectCount + " uptime=" + getUptime() + "ms total=" + getTotalUptime() + "ms";
+	}
+}
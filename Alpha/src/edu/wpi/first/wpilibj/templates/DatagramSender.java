@@ -0,0 +1,126 @@
+package edu.wpi.first.wpilibj.templates;
+
+import java.io.IOException;
+import javax.microedition.io.Connector;
+import javax.microedition.io.Datagram;
+import javax.microedition.io.DatagramConnection;
+import org.nashua.tt151.libraries.parsers.FastCodec;
+import org.nashua.tt151.libraries.parsers.Framing;
+import org.nashua.tt151.libraries.parsers.ParsingException;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+
+/**
+ * Sends telemetry to the dashboard in UDP datagrams (see Framing). Messages
+ * are collected until flush, or until the next one would not fit, and every
+ * datagram gets the next sequence number. A lost datagram is never sent
+ * again; the next update of the channel replaces it. Frames are written
+ * straight into the datagram's bytes, FastFormat ones by FastCodec without
+ * building a String.
+ */
+public class DatagramSender {
+	/**
+	 * Largest datagram sent, small enough to fit in one Ethernet frame
+	 */
+	public static final int MAX_DATAGRAM_LENGTH = 1024;
+	private final DatagramConnection connection;
+	private final Datagram datagram;
+	private final byte[] bytes = new byte[MAX_DATAGRAM_LENGTH];
+	/**
+	 * Index after the last frame in bytes
+	 */
+	private int end = Framing.DATAGRAM_HEADER_LENGTH;
+	private int sequence;
+	private int sentCount;
+
+	/**
+	 * @param host IP Address of the laptop
+	 * @param port UDP port the dashboard is listening on
+	 * @throws IOException
+	 */
+	public DatagramSender( String host, int port ) throws IOException {
+		connection = (DatagramConnection) Connector.open( "datagram://" + host + ":" + port );
+		datagram = connection.newDatagram( bytes, bytes.length );
+	}
+
+	/**
+	 * Adds a message to the datagram being collected
+	 *
+	 * @param msg Message to send
+	 * @return False if the message is too long for any datagram
+	 * @throws IOException
+	 */
+	public boolean send( String msg ) throws IOException {
+		if ( !makeRoom( Framing.getFrameLength( msg ) ) ) {
+			return false;
+		}
+		end = Framing.writeFrame( bytes, end, msg );
+		return true;
+	}
+
+	/**
+	 * Adds a FastFormat message to the datagram being collected, encoding it
+	 * straight into the datagram
+	 *
+	 * @param command The command of the message
+	 * @param key The key of the message
+	 * @param val The value type to encode the value as
+	 * @param value The value
+	 * @param args Arguments to append, may be null
+	 * @return False if the message is too long for any datagram
+	 * @throws ParsingException If the message cannot be encoded (see FastCodec.encode)
+	 * @throws IOException
+	 */
+	public boolean send( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value val, double value, String[] args ) throws ParsingException, IOException {
+		if ( val == null || !makeRoom( FastCodec.getFrameLength( val, args ) ) ) {
+			return false;
+		}
+		end += FastCodec.encode( bytes, end, command, key, val, value, args );
+		return true;
+	}
+
+	/**
+	 * Sends what has been collected if a frame does not fit after it
+	 *
+	 * @return False if the frame does not fit in any datagram
+	 */
+	private boolean makeRoom( int frameLength ) throws IOException {
+		if ( Framing.DATAGRAM_HEADER_LENGTH + frameLength > bytes.length ) {
+			return false;
+		}
+		if ( end + frameLength > bytes.length ) {
+			flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the messages collected so far as one datagram
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if ( end == Framing.DATAGRAM_HEADER_LENGTH ) {
+			return;
+		}
+		Framing.writeDatagramHeader( bytes, 0, sequence );
+		sequence = ( sequence + 1 ) & Framing.MAX_DATAGRAM_SEQUENCE;
+		datagram.setData( bytes, 0, end );
+		end = Framing.DATAGRAM_HEADER_LENGTH;
+		connection.send( datagram );
+		sentCount++;
+	}
+
+	/**
+	 * @return Number of datagrams sent
+	 */
+	public int getSentCount() {
+		return sentCount;
+	}
+
+	public void close() {
+		try {
+			connection.close();
+		} catch ( IOException e ) {
+		}
+	}
+}
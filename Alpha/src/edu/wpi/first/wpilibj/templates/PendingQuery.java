@@ -0,0 +1,174 @@
+package edu.wpi.first.wpilibj.templates;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+
+/**
+ * A query that has been sent to the dashboard. It is done once its reply
+ * arrives, its deadline passes or the connection is lost, whichever comes
+ * first. The caller can check on it whenever suits it, wait for it, or set a
+ * callback. Replies are delivered on the connection's reader thread, so a
+ * callback must not block.
+ */
+public class PendingQuery {
+	/**
+	 * Called once when a query is done
+	 */
+	public static interface Callback {
+		/**
+		 * Called on the reader thread when the reply arrives, or on the
+		 * mailbox's timer thread when the query times out. Check hasReply.
+		 */
+		public void onDone( PendingQuery query );
+	}
+
+	private final ReplyMailbox mailbox;
+	private final ProtocolParsing.Key key;
+	private final int sequence;
+	private final long sentAt;
+	private final long deadline;
+	private ReplyMailbox.Reply reply;
+	private boolean done;
+	private Callback callback;
+
+	PendingQuery( ReplyMailbox mailbox, ProtocolParsing.Key key, int sequence, long sentAt, long deadline ) {
+		this.mailbox = mailbox;
+		this.key = key;
+		this.sequence = sequence;
+		this.sentAt = sentAt;
+		this.deadline = deadline;
+	}
+
+	public ProtocolParsing.Key getKey() {
+		return key;
+	}
+
+	/**
+	 * @return The sequence number the query was sent with
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return System.currentTimeMillis() when the query was sent
+	 */
+	public long getSentAt() {
+		return sentAt;
+	}
+
+	/**
+	 * @return System.currentTimeMillis() after which the query has timed out
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Stores the reply, or null if the query failed, and wakes anything
+	 * waiting on it
+	 *
+	 * @return False if the query was already done
+	 */
+	boolean finish( ReplyMailbox.Reply reply ) {
+		Callback c;
+		synchronized ( this ) {
+			if ( done ) {
+				return false;
+			}
+			this.reply = reply;
+			done = true;
+			c = callback;
+			notifyAll();
+		}
+		if ( reply == null ) {
+			mailbox.release( this );
+		}
+		if ( c != null ) {
+			c.onDone( this );
+		}
+		return true;
+	}
+
+	/**
+	 * Finishes the query without a reply if its deadline has passed
+	 */
+	void expire() {
+		if ( System.currentTimeMillis() >= deadline ) {
+			finish( null );
+		}
+	}
+
+	/**
+	 * @return True if the reply arrived or the query failed
+	 */
+	public boolean isDone() {
+		expire();
+		synchronized ( this ) {
+			return done;
+		}
+	}
+
+	/**
+	 * @return True if the reply arrived
+	 */
+	public synchronized boolean hasReply() {
+		return reply != null;
+	}
+
+	/**
+	 * @return The reply, or null if it has not arrived (yet)
+	 */
+	public synchronized ReplyMailbox.Reply getReply() {
+		return reply;
+	}
+
+	/**
+	 * @return The value of the reply, or null if it has not arrived (yet)
+	 */
+	public synchronized String getValue() {
+		return reply == null ? null : reply.getValue();
+	}
+
+	/**
+	 * Sleeps until the query is done
+	 *
+	 * @return The reply, or null if the query timed out or the connection
+	 *         was lost
+	 */
+	public ReplyMailbox.Reply waitForReply() {
+		while ( !isDone() ) {
+			synchronized ( this ) {
+				long left = deadline - System.currentTimeMillis();
+				if ( !done && left > 0 ) {
+					try {
+						wait( left );
+					} catch ( InterruptedException e ) {
+						return reply;
+					}
+				}
+			}
+		}
+		return getReply();
+	}
+
+	/**
+	 * Sets what to call when the query is done. If it already is, the
+	 * callback is called straight away on this thread.
+	 */
+	public void setCallback( Callback callback ) {
+		boolean waiting;
+		synchronized ( this ) {
+			waiting = !done;
+			if ( waiting ) {
+				this.callback = callback;
+			}
+		}
+		if ( waiting ) {
+			if ( !mailbox.scheduleTimeout( this ) ) {
+				finish( null );
+			}
+		} else {
+			callback.onDone( this );
+		}
+	}
+}
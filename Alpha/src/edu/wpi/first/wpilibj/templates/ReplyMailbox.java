@@ -0,0 +1,262 @@
+package edu.wpi.first.wpilibj.templates;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+
+/**
+ * Matches the dashboard's replies to the queries waiting for them. Every query
+ * gets a sequence number and a slot of its own before it is sent, so several
+ * queries can be outstanding at once, even for the same key. A reply carrying
+ * a sequence number goes to exactly that query; one without (from a dashboard
+ * that does not support Handshake.SEQUENCE) goes to the oldest query for its
+ * key. Replies nobody is waiting for are stale and thrown away. Round trip
+ * times are kept per key.
+ */
+public class ReplyMailbox {
+	/**
+	 * A reply from the dashboard
+	 */
+	public static class Reply {
+		private final String value;
+		private final String[] args;
+		private final long receivedAt;
+		private final long roundTrip;
+
+		private Reply( String value, String[] args, long receivedAt, long roundTrip ) {
+			this.value = value;
+			this.args = args;
+			this.receivedAt = receivedAt;
+			this.roundTrip = roundTrip;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return The reply's arguments, starting with the sequence number if
+		 *         the dashboard sent one
+		 */
+		public String[] getArgs() {
+			return args;
+		}
+
+		/**
+		 * @return System.currentTimeMillis() when the reply was read
+		 */
+		public long getReceivedAt() {
+			return receivedAt;
+		}
+
+		/**
+		 * @return Milliseconds from the query being sent to the reply being read
+		 */
+		public long getRoundTrip() {
+			return roundTrip;
+		}
+	}
+
+	/**
+	 * Sequence numbers run from 0 to MAX_SEQUENCE - 1 and then start over,
+	 * so they never take more than 3 characters
+	 */
+	public static final int MAX_SEQUENCE = 1000;
+	/**
+	 * Most queries outstanding at once. A query is in slot sequence % SLOTS,
+	 * so a query still outstanding SLOTS queries later loses its slot.
+	 */
+	private static final int SLOTS = 16;
+	/**
+	 * Keys are indexed by their bitsum, which is a multiple of 4 below 32
+	 */
+	private static final int KEYS = 8;
+	/**
+	 * Query waiting in each slot, null if the slot is free
+	 */
+	private final PendingQuery[] slots = new PendingQuery[SLOTS];
+	private int nextSequence;
+	private int staleCount;
+	private int timeoutCount;
+	private final int[] roundTripCount = new int[KEYS];
+	private final long[] roundTripTotal = new long[KEYS];
+	private final long[] roundTripMax = new long[KEYS];
+	/**
+	 * Times out queries that have a callback, created with the first one and
+	 * cancelled by clear
+	 */
+	private Timer timer;
+	/**
+	 * Set by clear, after which no timer is created
+	 */
+	private boolean cleared;
+
+	/**
+	 * Reserves a slot for a query. Call before sending the query so a fast
+	 * reply is not taken as stale.
+	 *
+	 * @param timeout Milliseconds the query waits for its reply
+	 * @return The query, whose sequence number is sent with it
+	 */
+	public PendingQuery expect( ProtocolParsing.Key key, long timeout ) {
+		PendingQuery query;
+		PendingQuery lost;
+		synchronized ( this ) {
+			int sequence = nextSequence;
+			nextSequence = ( nextSequence + 1 ) % MAX_SEQUENCE;
+			long now = System.currentTimeMillis();
+			query = new PendingQuery( this, key, sequence, now, now + timeout );
+			int slot = sequence % SLOTS;
+			lost = slots[slot];
+			slots[slot] = query;
+		}
+		if ( lost != null ) {
+			// Still outstanding SLOTS queries later, it is not getting a reply
+			lost.finish( null );
+		}
+		return query;
+	}
+
+	/**
+	 * Hands a reply to its query. Called by the reader thread.
+	 *
+	 * @param sequence The sequence number the reply carried, or -1 if it had none
+	 * @return False if nobody was waiting for the reply and it was thrown away
+	 */
+	public boolean put( ProtocolParsing.Key key, int sequence, String value, String[] args ) {
+		long now = System.currentTimeMillis();
+		PendingQuery query = null;
+		synchronized ( this ) {
+			int slot = -1;
+			if ( sequence >= 0 ) {
+				int i = sequence % SLOTS;
+				if ( slots[i] != null && slots[i].getKey() == key && slots[i].getSequence() == sequence ) {
+					slot = i;
+				}
+			} else {
+				for ( int i = 0; i < SLOTS; i++ ) {
+					if ( slots[i] != null && slots[i].getKey() == key && now < slots[i].getDeadline() && ( slot == -1 || slots[i].getSentAt() < slots[slot].getSentAt() ) ) {
+						slot = i;
+					}
+				}
+			}
+			if ( slot != -1 && now < slots[slot].getDeadline() ) {
+				query = slots[slot];
+				slots[slot] = null;
+			}
+		}
+		if ( query == null ) {
+			synchronized ( this ) {
+				staleCount++;
+			}
+			return false;
+		}
+		long roundTrip = now - query.getSentAt();
+		if ( !query.finish( new Reply( value, args, now, roundTrip ) ) ) {
+			// Timed out while the reply was being read
+			synchronized ( this ) {
+				staleCount++;
+			}
+			return false;
+		}
+		synchronized ( this ) {
+			int k = key.bitsum >> 2;
+			roundTripCount[k]++;
+			roundTripTotal[k] += roundTrip;
+			if ( roundTrip > roundTripMax[k] ) {
+				roundTripMax[k] = roundTrip;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Frees the slot of a query that finished without a reply
+	 */
+	synchronized void release( PendingQuery query ) {
+		int slot = query.getSequence() % SLOTS;
+		if ( slots[slot] == query ) {
+			slots[slot] = null;
+			timeoutCount++;
+		}
+	}
+
+	/**
+	 * Makes sure a query with a callback is finished at its deadline even if
+	 * nobody checks on it
+	 *
+	 * @return False if the connection has been lost and the query will not
+	 *         get a reply
+	 */
+	synchronized boolean scheduleTimeout( final PendingQuery query ) {
+		if ( cleared ) {
+			return false;
+		}
+		if ( timer == null ) {
+			timer = new Timer();
+		}
+		timer.schedule( new TimerTask() {
+			public void run() {
+				query.expire();
+			}
+		}, Math.max( 0, query.getDeadline() - System.currentTimeMillis() ) );
+		return true;
+	}
+
+	/**
+	 * Fails every outstanding query and stops the timer thread, for when the
+	 * connection is lost
+	 */
+	public void clear() {
+		PendingQuery[] lost = new PendingQuery[SLOTS];
+		synchronized ( this ) {
+			System.arraycopy( slots, 0, lost, 0, SLOTS );
+			cleared = true;
+			if ( timer != null ) {
+				timer.cancel();
+				timer = null;
+			}
+		}
+		for ( int i = 0; i < SLOTS; i++ ) {
+			if ( lost[i] != null ) {
+				lost[i].finish( null );
+			}
+		}
+	}
+
+	/**
+	 * @return Number of replies thrown away because nobody was waiting for them
+	 */
+	public synchronized int getStaleCount() {
+		return staleCount;
+	}
+
+	/**
+	 * @return Number of queries that finished without a reply
+	 */
+	public synchronized int getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	/**
+	 * @return Number of replies received for a key
+	 */
+	public synchronized int getRoundTripCount( ProtocolParsing.Key key ) {
+		return roundTripCount[key.bitsum >> 2];
+	}
+
+	/**
+	 * @return Average round trip of a key's queries in milliseconds
+	 */
+	public synchronized long getAverageRoundTrip( ProtocolParsing.Key key ) {
+		int k = key.bitsum >> 2;
+		return roundTripCount[k] == 0 ? 0 : roundTripTotal[k] / roundTripCount[k];
+	}
+
+	/**
+	 * @return Longest round trip of a key's queries in milliseconds
+	 */
+	public synchronized long getMaxRoundTrip( ProtocolParsing.Key key ) {
+		return roundTripMax[key.bitsum >> 2];
+	}
+}
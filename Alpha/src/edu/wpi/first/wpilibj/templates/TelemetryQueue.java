@@ -0,0 +1,231 @@
+package edu.wpi.first.wpilibj.templates;
+
+import java.io.IOException;
+import java.util.Vector;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+
+/**
+ * Everything waiting to be sent to the dashboard. Each channel has one slot
+ * holding its latest value, so a value that was not sent before a newer one
+ * came in is replaced instead of queued, and the queue can never hold more
+ * than one update per channel. Critical messages (status, queries, logs) go
+ * in a separate FIFO and are never dropped or merged. The sending thread
+ * waits here for work, so whoever fills the queue never waits on the socket.
+ */
+public class TelemetryQueue {
+	/**
+	 * The latest value of one channel, as copied out by drain
+	 */
+	public static class Channel {
+		public ProtocolParsing.Key key;
+		public int slot;
+		public double value;
+		public String valueString;
+		public boolean numeric;
+		public String name;
+		public char type;
+	}
+
+	/**
+	 * Keys are indexed by their bitsum, which is a multiple of 4 below 32
+	 */
+	private static final int KEYS = 8;
+	/**
+	 * Slots are numbered from 1 and no module has more than 14
+	 */
+	private static final int SLOTS = 16;
+	private final Channel[] channels = new Channel[KEYS * SLOTS];
+	private final boolean[] dirty = new boolean[KEYS * SLOTS];
+	private int dirtyCount;
+	private final Vector critical = new Vector();
+	private int holds;
+	private boolean closed;
+	private IOException failure;
+	private int coalescedCount;
+	private int droppedCount;
+
+	public TelemetryQueue() {
+		for ( int i = 0; i < channels.length; i++ ) {
+			channels[i] = new Channel();
+		}
+	}
+
+	/**
+	 * Stores the latest value of a channel, replacing any value of it that
+	 * has not been sent yet
+	 *
+	 * @throws IOException If sending has failed, so the connection is gone
+	 */
+	public synchronized void put( ProtocolParsing.Key key, int slot, double value, String valueString, boolean numeric, String name, char type ) throws IOException {
+		checkFailure();
+		if ( closed || slot < 0 || slot >= SLOTS ) {
+			droppedCount++;
+			return;
+		}
+		int i = ( key.bitsum >> 2 ) * SLOTS + slot;
+		if ( dirty[i] ) {
+			coalescedCount++;
+		} else {
+			dirty[i] = true;
+			dirtyCount++;
+		}
+		Channel c = channels[i];
+		c.key = key;
+		c.slot = slot;
+		c.value = value;
+		c.valueString = valueString;
+		c.numeric = numeric;
+		c.name = name;
+		c.type = type;
+		notifyAll();
+	}
+
+	/**
+	 * Adds a message that must be sent, in order with the other critical
+	 * messages
+	 *
+	 * @throws IOException If sending has failed, so the connection is gone
+	 */
+	public synchronized void putCritical( String msg ) throws IOException {
+		checkFailure();
+		if ( closed ) {
+			droppedCount++;
+			return;
+		}
+		critical.addElement( msg );
+		notifyAll();
+	}
+
+	private void checkFailure() throws IOException {
+		if ( failure != null ) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Keeps the sending thread from taking anything until release, so
+	 * updates made together are sent together. Every call must be paired
+	 * with release.
+	 */
+	public synchronized void hold() {
+		holds++;
+	}
+
+	/**
+	 * @throws IOException If sending has failed, so the connection is gone
+	 */
+	public synchronized void release() throws IOException {
+		if ( holds > 0 ) {
+			holds--;
+		}
+		notifyAll();
+		checkFailure();
+	}
+
+	/**
+	 * Waits until there is something to send and nothing is holding the
+	 * queue. Called by the sending thread.
+	 *
+	 * @return False once the queue is closed
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean await() throws InterruptedException {
+		while ( !closed && ( holds > 0 || ( critical.isEmpty() && dirtyCount == 0 ) ) ) {
+			wait();
+		}
+		return !closed;
+	}
+
+	/**
+	 * @return The oldest critical message, or null if there are none
+	 */
+	public synchronized String takeCritical() {
+		if ( critical.isEmpty() ) {
+			return null;
+		}
+		String msg = (String) critical.elementAt( 0 );
+		critical.removeElementAt( 0 );
+		return msg;
+	}
+
+	/**
+	 * Copies the channels waiting to be sent and marks them sent
+	 *
+	 * @param out Where to copy the channels to, at least getCapacity long
+	 * @return Number of channels copied
+	 */
+	public synchronized int drain( Channel[] out ) {
+		int n = 0;
+		for ( int i = 0; i < channels.length && dirtyCount > 0; i++ ) {
+			if ( dirty[i] ) {
+				Channel from = channels[i];
+				Channel to = out[n++];
+				to.key = from.key;
+				to.slot = from.slot;
+				to.value = from.value;
+				to.valueString = from.valueString;
+				to.numeric = from.numeric;
+				to.name = from.name;
+				to.type = from.type;
+				dirty[i] = false;
+				dirtyCount--;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return Most channels drain can return at once
+	 */
+	public int getCapacity() {
+		return channels.length;
+	}
+
+	/**
+	 * Stops the sending thread and throws away what is waiting. Later puts
+	 * throw the failure, if there is one.
+	 *
+	 * @param failure Why sending stopped, or null
+	 */
+	public synchronized void close( IOException failure ) {
+		closed = true;
+		if ( this.failure == null ) {
+			this.failure = failure;
+		}
+		droppedCount += dirtyCount + critical.size();
+		for ( int i = 0; i < dirty.length; i++ ) {
+			dirty[i] = false;
+		}
+		dirtyCount = 0;
+		critical.removeAllElements();
+		notifyAll();
+	}
+
+	/**
+	 * @return Number of channel values replaced by a newer one before they were sent
+	 */
+	public synchronized int getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return Number of values and messages thrown away without being sent
+	 */
+	public synchronized int getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return Number of critical messages waiting to be sent
+	 */
+	public synchronized int getCriticalCount() {
+		return critical.size();
+	}
+
+	/**
+	 * @return Number of channels waiting to be sent
+	 */
+	public synchronized int getChannelCount() {
+		return dirtyCount;
+	}
+}
@@ -0,0 +1,220 @@
+package org.nashua.tt151.libraries.parsers;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Header;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+
+/**
+ * Encodes and decodes FastFormat frames to and from a byte array without
+ * building Strings. A frame is laid out exactly as Framing.writeFrame lays out
+ * Framing.FAST followed by a message from FastParser.createMessage:
+ *
+ * <pre>
+ * [length] [FAST] [header] [payload] [args]
+ * </pre>
+ *
+ * length is one unsigned byte counting everything after it. The header uses
+ * the bits of ProtocolParsing.Header (Command.bitsum + Key.bitsum +
+ * Value.bitsum, plus 128 when negative). The payload is 1 byte for BYTE, 2 for
+ * SHORT and DOUBLE_BYTE, and 4 for DOUBLE_SHORT. Shorts are written low byte
+ * first, the same order as BitwiseTools.makeShort. Args are comma separated,
+ * one byte per character.
+ *
+ * Only byte arrays are used so the codec also runs on the cRIO.
+ *
+ * @version 1.0
+ */
+public final class FastCodec {
+
+	// Prevent instantiation
+	private FastCodec() {}
+
+	/**
+	 * Encodes an integer message as a frame
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the length byte at
+	 * @param command The command of the message
+	 * @param key The key of the message
+	 * @param val The value type to encode the value as
+	 * @param value The value
+	 * @param args Arguments to append, may be null
+	 * @return The number of bytes written, or 0 if the frame did not fit in the buffer
+	 * @throws ParsingException If an argument is null, the value is out of range
+	 *             or the message is longer than Framing.MAX_MESSAGE_LENGTH
+	 */
+	public static int encode( byte[] buf, int offset, Command command, Key key, Value val, int value, String[] args ) throws ParsingException {
+		if ( val == Value.DOUBLE_BYTE || val == Value.DOUBLE_SHORT ) {
+			return encode( buf, offset, command, key, val, (double) value, args );
+		}
+		checkHeader( command, key, val );
+
+		int header = command.bitsum + key.bitsum + val.bitsum;
+		int max = val == Value.BYTE ? 255 : 65535;
+		if ( value < -max || value > max ) {
+			throw new ParsingException( 5, "the value was out of range (-" + max + " to " + max + ")" );
+		}
+		if ( value < 0 ) {
+			header += 128;
+			value = -value;
+		}
+
+		return write( buf, offset, header, val, value, 0, args );
+	}
+
+	/**
+	 * Encodes a double message as a frame
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the length byte at
+	 * @param command The command of the message
+	 * @param key The key of the message
+	 * @param val The value type to encode the value as
+	 * @param value The value
+	 * @param args Arguments to append, may be null
+	 * @return The number of bytes written, or 0 if the frame did not fit in the buffer
+	 * @throws ParsingException If an argument is null, the value cannot be encoded
+	 *             as val or the message is longer than Framing.MAX_MESSAGE_LENGTH
+	 */
+	public static int encode( byte[] buf, int offset, Command command, Key key, Value val, double value, String[] args ) throws ParsingException {
+		if ( val == Value.BYTE || val == Value.SHORT ) {
+			if ( value != (int) value ) {
+				throw new ParsingException( 6, "'" + value + "' is not a valid integer" );
+			}
+			return encode( buf, offset, command, key, val, (int) value, args );
+		}
+		checkHeader( command, key, val );
+
+		int header = command.bitsum + key.bitsum + val.bitsum;
+		if ( value < 0.0 ) {
+			header += 128;
+			value = Math.abs( value );
+		}
+		int parts = ProtocolParsing.FastParser.splitDouble( value, val );
+
+		return write( buf, offset, header, val, parts >>> 16, parts & 0xFFFF, args );
+	}
+
+	/**
+	 * @param buf The buffer holding a message
+	 * @param offset Index of the first byte of the message, after its length byte
+	 * @param length Number of bytes in the message
+	 * @return True if the message is marked as FastFormat
+	 */
+	public static boolean isFast( byte[] buf, int offset, int length ) {
+		return length > 1 && buf[offset] == Framing.FAST;
+	}
+
+	/**
+	 * Decodes a FastFormat message into an existing FastMessage
+	 *
+	 * @param buf The buffer holding the message
+	 * @param offset Index of the Framing.FAST marker, after the length byte
+	 * @param length Number of bytes in the message
+	 * @param msg The FastMessage to fill
+	 * @return False, with msg untouched, if the message is not a well formed
+	 *         FastFormat message
+	 */
+	public static boolean decode( byte[] buf, int offset, int length, FastMessage msg ) {
+		if ( !isFast( buf, offset, length ) ) {
+			return false;
+		}
+		Header header = Header.decode( buf[offset + 1] & 0xFF );
+		if ( header.key == null || header.value == null || length < 2 + header.value.length ) {
+			return false;
+		}
+
+		int p = offset + 2;
+		int whole;
+		int frac = 0;
+		if ( header.value == Value.BYTE ) {
+			whole = buf[p] & 0xFF;
+		} else if ( header.value == Value.DOUBLE_BYTE ) {
+			whole = buf[p] & 0xFF;
+			frac = buf[p + 1] & 0xFF;
+		} else {
+			whole = ( buf[p] & 0xFF ) | ( ( buf[p + 1] & 0xFF ) << 8 );
+			if ( header.value == Value.DOUBLE_SHORT ) {
+				frac = ( buf[p + 2] & 0xFF ) | ( ( buf[p + 3] & 0xFF ) << 8 );
+			}
+		}
+		p += header.value.length;
+
+		msg.set( header, whole, frac, buf, p, offset + length - p );
+		return true;
+	}
+
+	/**
+	 * @param val The value type of the message
+	 * @param args Arguments of the message, may be null
+	 * @return The number of bytes encode writes for the frame, including the length byte
+	 */
+	public static int getFrameLength( Value val, String[] args ) {
+		int length = 3 + val.length;
+		if ( args != null ) {
+			for ( int i = 0; i != args.length; i++ ) {
+				length += args[i].length();
+			}
+			if ( args.length > 1 ) {
+				length += args.length - 1;
+			}
+		}
+		return length;
+	}
+
+	// Writes the length, marker, header, payload and args
+	private static int write( byte[] buf, int offset, int header, Value val, int whole, int frac, String[] args ) throws ParsingException {
+		int frameLength = getFrameLength( val, args );
+		if ( frameLength - 1 > Framing.MAX_MESSAGE_LENGTH ) {
+			throw new ParsingException( 5, "the args were too long (" + ( frameLength - 1 ) + " characters in the message)" );
+		}
+		if ( offset < 0 || buf.length - offset < frameLength ) {
+			return 0;
+		}
+
+		int p = offset;
+		buf[p++] = (byte) ( frameLength - 1 );
+		buf[p++] = Framing.FAST;
+		buf[p++] = (byte) header;
+		if ( val == Value.BYTE ) {
+			buf[p++] = (byte) whole;
+		} else if ( val == Value.DOUBLE_BYTE ) {
+			buf[p++] = (byte) whole;
+			buf[p++] = (byte) frac;
+		} else {
+			buf[p++] = (byte) whole;
+			buf[p++] = (byte) ( whole >> 8 );
+			if ( val == Value.DOUBLE_SHORT ) {
+				buf[p++] = (byte) frac;
+				buf[p++] = (byte) ( frac >> 8 );
+			}
+		}
+		if ( args != null ) {
+			for ( int i = 0; i != args.length; i++ ) {
+				if ( i != 0 ) {
+					buf[p++] = ',';
+				}
+				String arg = args[i];
+				for ( int j = 0; j != arg.length(); j++ ) {
+					buf[p++] = (byte) arg.charAt( j );
+				}
+			}
+		}
+
+		return frameLength;
+	}
+
+	// Same checks as FastParser.createMessage
+	private static void checkHeader( Command command, Key key, Value val ) throws ParsingException {
+		if ( command == null ) {
+			throw new ParsingException( 7, "Command Arguement was set to null" );
+		}
+		if ( key == null ) {
+			throw new ParsingException( 7, "Key Arguement was set to null" );
+		}
+		if ( val == null ) {
+			throw new ParsingException( 7, "Value Arguement was set to null" );
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package org.nashua.tt151.libraries.parsers;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Header;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+
+/**
+ * A reusable holder for a FastFormat message decoded by FastCodec. The value
+ * is kept as its whole and fraction parts and the args are kept as a range of
+ * the buffer the message was decoded from, so decoding into an existing
+ * FastMessage does not allocate. The args range is only valid until that
+ * buffer is reused.
+ *
+ * @version 1.0
+ */
+public class FastMessage {
+
+	private Header header;
+	private int whole;
+	private int frac;
+	private byte[] buffer;
+	private int argsOffset;
+	private int argsLength;
+
+	public FastMessage() {
+		header = Header.decode( 0 );
+	}
+
+	// Called by FastCodec after a message has been read
+	void set( Header header, int whole, int frac, byte[] buffer, int argsOffset, int argsLength ) {
+		this.header = header;
+		this.whole = whole;
+		this.frac = frac;
+		this.buffer = buffer;
+		this.argsOffset = argsOffset;
+		this.argsLength = argsLength;
+	}
+
+	// Read by MessageCursor.reset
+	Header getHeader() {
+		return header;
+	}
+
+	int getWhole() {
+		return whole;
+	}
+
+	int getFrac() {
+		return frac;
+	}
+
+	public Command getCommand() {
+		return header.command;
+	}
+
+	public Key getKey() {
+		return header.key;
+	}
+
+	public Value getValueType() {
+		return header.value;
+	}
+
+	public boolean isSigned() {
+		return header.signed;
+	}
+
+	/**
+	 * @return The signed value of a BYTE or SHORT message, or the signed whole
+	 *         part of a DOUBLE_BYTE or DOUBLE_SHORT message
+	 */
+	public int getIntValue() {
+		return header.signed ? -whole : whole;
+	}
+
+	/**
+	 * @return The signed value of the message, identical to FastParser.getDoubleValue
+	 */
+	public double getDoubleValue() {
+		return getDoubleValue( header, whole, frac );
+	}
+
+	/**
+	 * @return The value of the message as text, identical to FastParser.getValue
+	 */
+	public String getValue() {
+		return getValue( header, whole, frac );
+	}
+
+	/**
+	 * @return Number of bytes in the args, including the commas between them
+	 */
+	public int getArgsLength() {
+		return argsLength;
+	}
+
+	/**
+	 * Creates a String from the args. Args are sent one byte per character.
+	 *
+	 * @return The comma separated args, empty if there are none
+	 */
+	public String getArgs() {
+		char[] chars = new char[argsLength];
+		for ( int i = 0; i != argsLength; i++ ) {
+			chars[i] = (char) ( buffer[argsOffset + i] & 0xFF );
+		}
+		return new String( chars );
+	}
+
+	// Shared with MessageCursor, which decodes the same parts from a String
+	static double getDoubleValue( Header header, int whole, int frac ) {
+		if ( header.value == Value.BYTE || header.value == Value.SHORT ) {
+			return header.signed ? -whole : whole;
+		}
+		double d = ProtocolParsing.FastParser.joinDouble( whole, frac );
+		return header.signed ? -d : d;
+	}
+
+	static String getValue( Header header, int whole, int frac ) {
+		if ( header.value == Value.BYTE || header.value == Value.SHORT ) {
+			return String.valueOf( header.signed ? -whole : whole );
+		}
+		return ( header.signed ? "-" : "" ) + whole + "." + frac;
+	}
+}
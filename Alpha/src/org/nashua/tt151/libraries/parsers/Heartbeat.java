@@ -0,0 +1,103 @@
+package org.nashua.tt151.libraries.parsers;
+
+/**
+ * Heartbeats both ends send once they agree on Handshake.HEARTBEAT. Each end
+ * sends a beat every interval, and the other answers it straight away with
+ * an echo carrying its own clock. The echo gives the round trip time and the
+ * offset between the two clocks, and a peer that has been silent for a number
+ * of beats is taken to be gone.
+ *
+ * <pre>
+ * BEAT:[sequence]:[sent at]
+ * ECHO:[sequence]:[sent at]:[received at]
+ * </pre>
+ *
+ * Times are System.currentTimeMillis() of the end that wrote them.
+ *
+ * @version 1.0
+ */
+public final class Heartbeat {
+
+	/**
+	 * Milliseconds between beats unless configured otherwise
+	 */
+	public static final int DEFAULT_INTERVAL = 100;
+
+	/**
+	 * Beats in a row a peer can miss before it is taken to be gone
+	 */
+	public static final int DEFAULT_MISSED_BEATS = 5;
+
+	private static final String BEAT = "BEAT:";
+	private static final String ECHO = "ECHO:";
+
+	// Prevent instantiation
+	private Heartbeat() {}
+
+	public static String createBeat( int sequence, long sentAt ) {
+		return BEAT + sequence + ":" + sentAt;
+	}
+
+	/**
+	 * @param beat The beat being answered
+	 * @param receivedAt When it was read, on this end's clock
+	 * @return The echo to send back
+	 */
+	public static String createEcho( String beat, long receivedAt ) {
+		return ECHO + beat.substring( BEAT.length() ) + ":" + receivedAt;
+	}
+
+	public static boolean isBeat( String msg ) {
+		return msg != null && msg.startsWith( BEAT );
+	}
+
+	public static boolean isEcho( String msg ) {
+		return msg != null && msg.startsWith( ECHO );
+	}
+
+	/**
+	 * @param echo An echo message
+	 * @return The sequence number of the beat it answers, or -1 if the
+	 *         message is malformed
+	 */
+	public static int getSequence( String echo ) {
+		int end = echo.indexOf( ':', ECHO.length() );
+		return end == -1 ? -1 : ValueParser.ParseInt( echo, ECHO.length(), end );
+	}
+
+	/**
+	 * @param echo An echo message
+	 * @return When the beat was sent, or -1 if the message is malformed
+	 */
+	public static long getSentAt( String echo ) {
+		return parseLong( echo, 1 );
+	}
+
+	/**
+	 * @param echo An echo message
+	 * @return When the peer read the beat, on its clock, or -1 if the message
+	 *         is malformed
+	 */
+	public static long getReceivedAt( String echo ) {
+		return parseLong( echo, 2 );
+	}
+
+	/**
+	 * @param index Which field after the prefix, counting from 0
+	 */
+	private static long parseLong( String msg, int index ) {
+		int start = msg.indexOf( ':' ) + 1;
+		for ( int i = 0; i < index && start > 0; i++ ) {
+			start = msg.indexOf( ':', start ) + 1;
+		}
+		if ( start == 0 ) {
+			return -1;
+		}
+		int end = msg.indexOf( ':', start );
+		try {
+			return Long.parseLong( end == -1 ? msg.substring( start ) : msg.substring( start, end ) );
+		} catch ( NumberFormatException e ) {
+			return -1;
+		}
+	}
+}
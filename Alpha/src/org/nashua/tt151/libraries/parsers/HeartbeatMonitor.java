@@ -0,0 +1,171 @@
+package org.nashua.tt151.libraries.parsers;
+
+/**
+ * One end's view of the heartbeats on a connection (see Heartbeat). It
+ * numbers the beats this end sends, measures the echoes that come back and
+ * keeps the last SAMPLES round trips for percentiles. Jitter is smoothed the
+ * way RTP does it, by a sixteenth of each change. The clock offset assumes
+ * the beat and its echo took equally long.
+ *
+ * @version 1.0
+ */
+public class HeartbeatMonitor {
+
+	/**
+	 * Round trips kept for percentiles
+	 */
+	public static final int SAMPLES = 64;
+
+	private final int interval;
+	private final int missedBeats;
+	private final long[] samples = new long[SAMPLES];
+	private final long[] sorted = new long[SAMPLES];
+	private int sampleCount;
+	private int nextSample;
+	private int nextSequence;
+	private long nextBeat;
+	private long lastHeard;
+	private long lastRoundTrip = -1;
+	// Sixteen times the jitter, so small changes are not rounded away
+	private long jitter16;
+	private long offset;
+	private int sentCount;
+	private int echoCount;
+
+	/**
+	 * @param interval Milliseconds between beats
+	 * @param missedBeats Beats in a row the peer can miss before it is gone
+	 */
+	public HeartbeatMonitor( int interval, int missedBeats ) {
+		this.interval = interval;
+		this.missedBeats = missedBeats;
+		lastHeard = System.currentTimeMillis();
+		nextBeat = lastHeard;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return Milliseconds of silence after which the peer is gone
+	 */
+	public long getTimeout() {
+		return (long) interval * missedBeats;
+	}
+
+	/**
+	 * @return The next beat to send, which is due now
+	 */
+	public synchronized String createBeat( long now ) {
+		int sequence = nextSequence;
+		nextSequence = ( nextSequence + 1 ) & 0x7FFFFFFF;
+		nextBeat = now + interval;
+		sentCount++;
+		return Heartbeat.createBeat( sequence, now );
+	}
+
+	/**
+	 * @return System.currentTimeMillis() when the next beat is due
+	 */
+	public synchronized long getNextBeat() {
+		return nextBeat;
+	}
+
+	/**
+	 * Notes that something arrived from the peer, any message counts
+	 */
+	public synchronized void onReceive( long now ) {
+		lastHeard = now;
+	}
+
+	/**
+	 * @return True if the peer has been silent for longer than the timeout
+	 */
+	public synchronized boolean isDead( long now ) {
+		return now - lastHeard > getTimeout();
+	}
+
+	/**
+	 * Measures an echo of one of this end's beats
+	 *
+	 * @return False if the echo is malformed
+	 */
+	public synchronized boolean onEcho( String echo, long now ) {
+		long sentAt = Heartbeat.getSentAt( echo );
+		long receivedAt = Heartbeat.getReceivedAt( echo );
+		if ( sentAt < 0 || receivedAt < 0 || sentAt > now ) {
+			return false;
+		}
+		lastHeard = now;
+		long roundTrip = now - sentAt;
+		if ( lastRoundTrip >= 0 ) {
+			jitter16 += Math.abs( roundTrip - lastRoundTrip ) - jitter16 / 16;
+		}
+		lastRoundTrip = roundTrip;
+		offset = receivedAt - ( sentAt + now ) / 2;
+		samples[nextSample] = roundTrip;
+		nextSample = ( nextSample + 1 ) % SAMPLES;
+		if ( sampleCount < SAMPLES ) {
+			sampleCount++;
+		}
+		echoCount++;
+		return true;
+	}
+
+	/**
+	 * @return Round trip of the last echo in milliseconds, -1 if there has
+	 *         been none
+	 */
+	public synchronized long getRoundTrip() {
+		return lastRoundTrip;
+	}
+
+	/**
+	 * @param percent 0 to 100
+	 * @return That percentile of the recent round trips in milliseconds, -1
+	 *         if there have been none
+	 */
+	public synchronized long getPercentile( int percent ) {
+		if ( sampleCount == 0 ) {
+			return -1;
+		}
+		// Insertion sort, there are few samples and no Arrays.sort on the cRIO
+		for ( int i = 0; i < sampleCount; i++ ) {
+			long v = samples[i];
+			int j = i;
+			while ( j > 0 && sorted[j - 1] > v ) {
+				sorted[j] = sorted[j - 1];
+				j--;
+			}
+			sorted[j] = v;
+		}
+		int i = ( sampleCount - 1 ) * percent / 100;
+		return sorted[i];
+	}
+
+	/**
+	 * @return Smoothed variation between round trips in milliseconds
+	 */
+	public synchronized long getJitter() {
+		return jitter16 / 16;
+	}
+
+	/**
+	 * @return How far the peer's clock is ahead of this end's in milliseconds
+	 */
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return Number of beats sent whose echo never came back (or not yet)
+	 */
+	public synchronized int getLostCount() {
+		return sentCount - echoCount;
+	}
+
+	public synchronized String toString() {
+		return "RTT p50=" + getPercentile( 50 ) + " p95=" + getPercentile( 95 ) + " jitter=" + getJitter() + " offset=" + offset + "ms";
+	}
+}
@@ -36,6 +36,33 @@ public class ProtocolParsing {
 		public static final ProtocolParsing.Command Unknown = new ProtocolParsing.Command( 'U', (byte) 0 );
 		public static final ProtocolParsing.Command[] ALL = { Query, Reply, Send, Unknown };
 		
+		// Lookup table from ASCII shorthand (either case) to command
+		private static final ProtocolParsing.Command[] BY_SHORTHAND = new ProtocolParsing.Command[128];
+		
+		static {
+			for ( int i = 0; i != BY_SHORTHAND.length; i++ ) {
+				BY_SHORTHAND[i] = Unknown;
+			}
+			for ( int i = 0; i != ALL.length; i++ ) {
+				BY_SHORTHAND[ALL[i].shorthand] = ALL[i];
+				BY_SHORTHAND[Character.toLowerCase( ALL[i].shorthand )] = ALL[i];
+			}
+		}
+		
+		/**
+		 * Looks up a command by its shorthand, ignoring case
+		 * 
+		 * @param c The shorthand character
+		 * @return The command, or Unknown if no command matches
+		 */
+		public static ProtocolParsing.Command fromShorthand( char c ) {
+			if ( c >= BY_SHORTHAND.length ) {
+				// A few non-ASCII characters upper case to ASCII letters
+				c = Character.toUpperCase( c );
+			}
+			return c < BY_SHORTHAND.length ? BY_SHORTHAND[c] : Unknown;
+		}
+		
 	}
 	
 	/**
@@ -61,6 +88,29 @@ public class ProtocolParsing {
 		public static final ProtocolParsing.Key DigitalIO = new ProtocolParsing.Key( "DI", (byte) 0 );
 		public static final ProtocolParsing.Key[] ALL = { CamTurnAngle, Status, AnalogValue, TurnSpeed, PWMValue, RelayValue, TargetHot, DigitalIO };
 		
+		// Lookup table from a two letter (A-Z) shorthand to key
+		private static final ProtocolParsing.Key[] BY_SHORTHAND = new ProtocolParsing.Key[26 * 26];
+		
+		static {
+			for ( int i = 0; i != ALL.length; i++ ) {
+				BY_SHORTHAND[( ALL[i].shorthand.charAt( 0 ) - 'A' ) * 26 + ALL[i].shorthand.charAt( 1 ) - 'A'] = ALL[i];
+			}
+		}
+		
+		/**
+		 * Looks up a key by the two characters of its shorthand
+		 * 
+		 * @param first The first character of the shorthand
+		 * @param second The second character of the shorthand
+		 * @return The key, or null if no key matches
+		 */
+		public static ProtocolParsing.Key fromShorthand( char first, char second ) {
+			if ( first < 'A' || first > 'Z' || second < 'A' || second > 'Z' ) {
+				return null;
+			}
+			return BY_SHORTHAND[( first - 'A' ) * 26 + second - 'A'];
+		}
+		
 	}
 	
 	public static class Value {
@@ -81,6 +131,67 @@ public class ProtocolParsing {
 		public static final ProtocolParsing.Value[] ALL = { BYTE, SHORT, DOUBLE_BYTE, DOUBLE_SHORT };
 	}
 	
+	/**
+	 * A decoded FastFormat header. The header byte holds the command in bits
+	 * 0-1, the key in bits 2-4, the value type in bits 5-6 and the sign in bit 7.
+	 * All 256 headers are decoded once when the class is loaded, so decoding a
+	 * header is a single array index.
+	 */
+	public static final class Header {
+		
+		public final ProtocolParsing.Command command;
+		public final ProtocolParsing.Key key;
+		public final ProtocolParsing.Value value;
+		public final boolean signed;
+		
+		private Header( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value value, boolean signed ) {
+			this.command = command;
+			this.key = key;
+			this.value = value;
+			this.signed = signed;
+		}
+		
+		// Returned for anything that does not fit in a byte
+		private static final ProtocolParsing.Header INVALID = new ProtocolParsing.Header( ProtocolParsing.Command.Unknown, null, null, false );
+		private static final ProtocolParsing.Header[] TABLE = new ProtocolParsing.Header[256];
+		
+		static {
+			for ( int h = 0; h != TABLE.length; h++ ) {
+				ProtocolParsing.Command command = ProtocolParsing.Command.Unknown;
+				ProtocolParsing.Key key = null;
+				ProtocolParsing.Value value = null;
+				
+				for ( int i = 0; i != ProtocolParsing.Command.ALL.length; i++ ) {
+					if ( ( h & 0x03 ) == ProtocolParsing.Command.ALL[i].bitsum ) {
+						command = ProtocolParsing.Command.ALL[i];
+					}
+				}
+				for ( int i = 0; i != ProtocolParsing.Key.ALL.length; i++ ) {
+					if ( ( h & 0x1C ) == ProtocolParsing.Key.ALL[i].bitsum ) {
+						key = ProtocolParsing.Key.ALL[i];
+					}
+				}
+				for ( int i = 0; i != ProtocolParsing.Value.ALL.length; i++ ) {
+					if ( ( h & 0x60 ) == ProtocolParsing.Value.ALL[i].bitsum ) {
+						value = ProtocolParsing.Value.ALL[i];
+					}
+				}
+				
+				TABLE[h] = new ProtocolParsing.Header( command, key, value, ( h & 0x80 ) != 0 );
+			}
+		}
+		
+		/**
+		 * Decodes a FastFormat header
+		 * 
+		 * @param header The header byte (0-255)
+		 * @return The decoded header. Headers outside 0-255 decode to an Unknown command with no key or value
+		 */
+		public static ProtocolParsing.Header decode( int header ) {
+			return header >= 0 && header < TABLE.length ? TABLE[header] : INVALID;
+		}
+	}
+	
 	/**
 	 * This class is responsible for parsing messages sent from the laptop to the
 	 * robot and vice versa. For more information on the protocol visit the wiki.
@@ -94,12 +205,27 @@ public class ProtocolParsing {
 		private StringParser() {}
 		
 		public static StringMessage parse( String msg ) {
-			StringMessage sm = new StringMessage();
+			return parse( msg, new StringMessage() );
+		}
+		
+		/**
+		 * Parses a message into an existing StringMessage. The message is only
+		 * walked once; use a MessageCursor instead if the value and args are
+		 * not needed as Strings.
+		 * 
+		 * @param msg The message to parse
+		 * @param sm The StringMessage to fill
+		 * @return The filled StringMessage
+		 */
+		public static StringMessage parse( String msg, StringMessage sm ) {
+			int keyStart = msg.indexOf( ':' ) + 1;
+			int keyEnd = keyStart == 0 ? -1 : msg.indexOf( ':', keyStart );
+			int valueEnd = keyEnd == -1 ? -1 : msg.indexOf( ':', keyEnd + 1 );
 			
 			sm.setCommand( getCommand( msg ) );
-			sm.setKey( getKey( msg ) );
-			sm.setValue( getValue( msg ) );
-			sm.setArgs( getArgs( msg ) );
+			sm.setKey( keyStart == 0 ? null : getKey( msg, keyStart, keyEnd == -1 ? msg.length() : keyEnd ) );
+			sm.setValue( keyEnd == -1 ? null : msg.substring( keyEnd + 1, valueEnd == -1 ? msg.length() : valueEnd ) );
+			sm.setArgs( valueEnd == -1 ? null : splitArgs( msg, valueEnd + 1 ) );
 			
 			return sm;
 		}
@@ -157,16 +283,7 @@ public class ProtocolParsing {
 		 * @return An enumerator from Commands, unknown is returned if no other commands match
 		 */
 		public static ProtocolParsing.Command getCommand( String msg ) {
-			char c = Character.toUpperCase( msg.charAt( 0 ) );
-			ProtocolParsing.Command command = ProtocolParsing.Command.Unknown;
-			
-			for ( int i = 0; i != ProtocolParsing.Command.ALL.length; i++ ) {
-				if ( c == ProtocolParsing.Command.ALL[i].shorthand ) {
-					command = ProtocolParsing.Command.ALL[i];
-				}
-			}
-			
-			return command;
+			return ProtocolParsing.Command.fromShorthand( msg.charAt( 0 ) );
 		}
 		
 		/**
@@ -178,16 +295,29 @@ public class ProtocolParsing {
 		 * @return An enumerator from Keys representing the key in the message
 		 */
 		public static ProtocolParsing.Key getKey( String msg ) {
-			String k = separateByColon( msg )[1];
-			ProtocolParsing.Key key = null;
-			
-			for ( int i = 0; i != ProtocolParsing.Key.ALL.length; i++ ) {
-				if ( k.equals( ProtocolParsing.Key.ALL[i].shorthand ) ) {
-					key = ProtocolParsing.Key.ALL[i];
-				}
+			int start = msg.indexOf( ':' ) + 1;
+			if ( start == 0 ) {
+				return null;
 			}
-			
-			return key;
+			int end = msg.indexOf( ':', start );
+			return getKey( msg, start, end == -1 ? msg.length() : end );
+		}
+		
+		/**
+		 * Identifies the key stored between two indices of the message without
+		 * creating a substring for it.
+		 * 
+		 * @param msg The message containing the key
+		 * @param start Index of the first character of the key
+		 * @param end Index after the last character of the key
+		 * @return An enumerator from Keys representing the key, or null if none matched
+		 */
+		public static ProtocolParsing.Key getKey( String msg, int start, int end ) {
+			// Every key shorthand is two characters long
+			if ( end - start != 2 ) {
+				return null;
+			}
+			return ProtocolParsing.Key.fromShorthand( msg.charAt( start ), msg.charAt( start + 1 ) );
 		}
 		
 		/**
@@ -198,12 +328,13 @@ public class ProtocolParsing {
 		 * @return A string containing the value.
 		 */
 		public static String getValue( String msg ) {
-			String[] a = separateByColon( msg );
-			try {
-				return a[2];
-			} catch ( IndexOutOfBoundsException ex ) {
+			int keyStart = msg.indexOf( ':' );
+			int start = keyStart == -1 ? -1 : msg.indexOf( ':', keyStart + 1 );
+			if ( start == -1 ) {
 				return null;
 			}
+			int end = msg.indexOf( ':', start + 1 );
+			return msg.substring( start + 1, end == -1 ? msg.length() : end );
 		}
 		
 		/**
@@ -214,19 +345,14 @@ public class ProtocolParsing {
 		 * @return An array of strings, representing the arguments
 		 */
 		public static String[] getArgs( String msg ) {
-			String args = "";
-			try {
-				args = StringTools.split( msg, ':' )[3];
-			} catch ( IndexOutOfBoundsException ex ) {
-				System.out.println( ex.toString() );
-			}
-			String[] rargs = null;
-			
-			if ( !args.equals( "" ) ) {
-				rargs = StringTools.split( args, ',' );
+			int colon = -1;
+			for ( int i = 0; i != 3; i++ ) {
+				colon = msg.indexOf( ':', colon + 1 );
+				if ( colon == -1 ) {
+					return null;
+				}
 			}
-			
-			return rargs;
+			return splitArgs( msg, colon + 1 );
 		}
 		
 		/**
@@ -268,9 +394,16 @@ public class ProtocolParsing {
 		
 		// }
 		
-		// Helper method used by parsing methods
-		private static String[] separateByColon( String msg ) {
-			return StringTools.split( msg, ':' );
+		// Helper method used by parsing methods, splits the args section starting at start
+		private static String[] splitArgs( String msg, int start ) {
+			int end = msg.indexOf( ':', start );
+			if ( end == -1 ) {
+				end = msg.length();
+			}
+			if ( end == start ) {
+				return null;
+			}
+			return StringTools.split( msg.substring( start, end ), ',' );
 		}
 		
 	}
@@ -314,233 +447,346 @@ public class ProtocolParsing {
 			// return (header == 128);
 		}
 		
+		/**
+		 * Decodes the header of a message using the precomputed header table
+		 * 
+		 * @param msg The message to get the header from
+		 * @return The decoded header
+		 */
+		public static ProtocolParsing.Header getHeader( String msg ) {
+			return ProtocolParsing.Header.decode( msg.charAt( 0 ) );
+		}
+		
 		public static boolean isSigned( String msg ) {
-			int header = (int) msg.charAt( 0 );
-			header = BitwiseTools.negatebits( header, 0, 6 );
-			return ( header == 128 );
+			return getHeader( msg ).signed;
 		}
 		
 		public static ProtocolParsing.Command getCommand( String msg ) {
-			ProtocolParsing.Command command = ProtocolParsing.Command.Unknown;
-			int header = (int) msg.charAt( 0 );
-			// Set all bits after the first two to zero
-			int cheader = BitwiseTools.negatebits( header, 2, 7 );
-			
-			// Iterate through all commands
-			for ( int i = 0; i != ProtocolParsing.Command.ALL.length; i++ ) {
-				ProtocolParsing.Command c = ProtocolParsing.Command.ALL[i];
-				
-				if ( cheader == c.bitsum ) {
-					command = c;
-					break;
-				}
-			}
-			
-			return command;
+			return getHeader( msg ).command;
 		}
 		
 		public static ProtocolParsing.Key getKey( String msg ) {
-			ProtocolParsing.Key key = null;
-			int header = (int) msg.charAt( 0 );
-			int kheader = BitwiseTools.negatebits( header, 0, 1 );
-			kheader = BitwiseTools.negatebits( kheader, 5, 7 );
-			
-			for ( int i = 0; i != ProtocolParsing.Key.ALL.length; i++ ) {
-				ProtocolParsing.Key k = ProtocolParsing.Key.ALL[i];
-				if ( kheader == k.bitsum ) {
-					key = k;
-					break;
-				}
-			}
-			return key;
+			return getHeader( msg ).key;
 		}
 		
 		public static ProtocolParsing.Value getValueType( String msg ) {
-			ProtocolParsing.Value val = null;
-			int header = (int) msg.charAt( 0 );
-			int vheader = BitwiseTools.negatebits( header, 0, 4 );
-			vheader = BitwiseTools.negatebit( vheader, 7 );
+			return getHeader( msg ).value;
+		}
+		
+		public static String getValue( String msg ) throws ParsingException {
+			String value = "";
+			ProtocolParsing.Header header = getHeader( msg );
 			
-			for ( int i = 0; i != ProtocolParsing.Value.ALL.length; i++ ) {
-				ProtocolParsing.Value v = ProtocolParsing.Value.ALL[i];
-				if ( vheader == v.bitsum ) {
-					val = v;
-					break;
+			if ( header.value == ProtocolParsing.Value.BYTE || header.value == ProtocolParsing.Value.SHORT ) {
+				value = String.valueOf( getIntValue( msg ) );
+			}
+			if ( header.value == ProtocolParsing.Value.DOUBLE_BYTE || header.value == ProtocolParsing.Value.DOUBLE_SHORT ) {
+				String neg = "";
+				if ( header.signed ) {
+					neg = "-";
 				}
+				value = neg + getWholePart( msg, header.value ) + "." + getFracPart( msg, header.value );
 			}
 			
-			return val;
+			return value;
 		}
 		
-		public static String getValue( String msg ) throws ParsingException {
-			String value = "";
-			ProtocolParsing.Value val = getValueType( msg );
+		/**
+		 * Decodes the value of a BYTE or SHORT message straight from the header
+		 * and payload characters, without creating a String.
+		 * 
+		 * @param msg The message to get the value from
+		 * @return The signed value
+		 * @throws ParsingException If the message is too short, out of range or not a BYTE/SHORT message
+		 */
+		public static int getIntValue( String msg ) throws ParsingException {
+			ProtocolParsing.Header header = getHeader( msg );
+			int num;
 			
-			if ( val == ProtocolParsing.Value.BYTE ) {
-				int num = -1;
-				try {
-					num = msg.charAt( 1 );
-				} catch ( IndexOutOfBoundsException e ) {
+			if ( header.value == ProtocolParsing.Value.BYTE ) {
+				if ( msg.length() < 2 ) {
 					throw new ParsingException( 4, "Byte parsing failed" );
 				}
-				if ( num < 0 || num > 255 ) {
+				num = msg.charAt( 1 );
+				if ( num > 255 ) {
 					throw new ParsingException( 4, "Byte parsing failed: value out of range" );
 				}
-				if ( isSigned( msg ) ) {
-					num *= -1;
+			} else if ( header.value == ProtocolParsing.Value.SHORT ) {
+				if ( msg.length() < 3 ) {
+					throw new ParsingException( 4, "Short parsing failed" );
 				}
-				value = String.valueOf( num );
+				num = BitwiseTools.makeShort( msg.charAt( 1 ), msg.charAt( 2 ) );
+			} else {
+				throw new ParsingException( 4, "Not an integer value" );
 			}
-			if ( val == ProtocolParsing.Value.SHORT ) {
-				char[] s = msg.substring( 1 ).toCharArray();
-				System.out.println( (int) s[0] + " | " + (int) s[1] );
-				int num = BitwiseTools.makeShort( (int) s[0], (int) s[1] );
-				if ( isSigned( msg ) ) {
-					num *= -1;
-				}
-				value = String.valueOf( num );
-				
-			}
-			if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
-				int wholepart = (int) msg.charAt( 1 );
-				int fracpart = (int) msg.charAt( 2 );
-				String neg = "";
-				if ( isSigned( msg ) ) {
-					neg = "-";
-				}
-				value = neg + wholepart + "." + fracpart;
+			
+			return header.signed ? -num : num;
+		}
+		
+		/**
+		 * Decodes the value of any message straight from the header and payload
+		 * characters. The result is identical to parsing the String returned by
+		 * getValue, without creating it.
+		 * 
+		 * @param msg The message to get the value from
+		 * @return The signed value
+		 * @throws ParsingException If the message is too short or has an unknown value type
+		 */
+		public static double getDoubleValue( String msg ) throws ParsingException {
+			ProtocolParsing.Header header = getHeader( msg );
+			
+			if ( header.value == ProtocolParsing.Value.BYTE || header.value == ProtocolParsing.Value.SHORT ) {
+				return getIntValue( msg );
 			}
-			if ( val == ProtocolParsing.Value.DOUBLE_SHORT ) {
-				char[] wholeshort = msg.substring( 1, 3 ).toCharArray();
-				char[] fracshort = msg.substring( 3, 5 ).toCharArray();
-				int wholepart = BitwiseTools.makeShort( (int) wholeshort[0], (int) wholeshort[1] );
-				int fracpart = BitwiseTools.makeShort( (int) fracshort[0], (int) fracshort[1] );
-				String neg = "";
-				if ( isSigned( msg ) ) {
-					neg = "-";
-				}
-				value = neg + wholepart + "." + fracpart;
+			if ( header.value != ProtocolParsing.Value.DOUBLE_BYTE && header.value != ProtocolParsing.Value.DOUBLE_SHORT ) {
+				throw new ParsingException( 4, "Unknown value type" );
 			}
 			
-			return value;
+			double d = joinDouble( getWholePart( msg, header.value ), getFracPart( msg, header.value ) );
+			
+			return header.signed ? -d : d;
 		}
 		
 		public static String[] getArgs( String msg ) {
 			Value v = getValueType( msg );
 			
-			String s = msg.substring( v.length );
+			String s = msg.substring( 1 + v.length );
 			return StringTools.split( s, ',' );
 			
 		}
 		
 		public static String createMessage( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value val, String value, String[] args ) throws ParsingException {
-			
-			int header = 0;
-			String vsect = "", asect = "";
-			
-			if ( command == null ) {
-				throw new ParsingException( 7, "Command Arguement was set to null" );
-			}
-			if ( key == null ) {
-				throw new ParsingException( 7, "Key Arguement was set to null" );
-			}
-			if ( val == null ) {
-				throw new ParsingException( 7, "Value Arguement was set to null" );
-			}
+			checkHeader( command, key, val );
 			if ( value == null ) {
 				throw new ParsingException( 7, "String value Arguement was set to null" );
 			}
 			
-			header += command.bitsum;
-			header += key.bitsum;
-			header += val.bitsum;
-			
-			if ( val == ProtocolParsing.Value.BYTE ) {
-				int num = 0;
+			if ( val == ProtocolParsing.Value.BYTE || val == ProtocolParsing.Value.SHORT ) {
+				int num;
 				try {
 					num = Integer.parseInt( value );
 				} catch ( NumberFormatException ne ) {
 					throw new ParsingException( 6, "'" + value + "' is not a valid integer" );
-				} finally {
-					if ( num >= -255 && num <= 255 ) {
-						if ( num < 0 ) {
-							header += 128;
-						}
-						num = Math.abs( num );
-						vsect += (char) num;
-						
-					} else {
-						throw new ParsingException( 5, "the value was out of range (-255 to 255)" );
-					}
 				}
+				return createMessage( command, key, val, num, args );
 			}
+			
+			double d;
+			try {
+				d = Double.parseDouble( value );
+			} catch ( NumberFormatException ex ) {
+				throw new ParsingException( 6, "'" + value + "' is not a valid double" );
+			}
+			return createMessage( command, key, val, d, args );
+		}
+		
+		/**
+		 * Creates a FastFormat message from an integer without formatting it as
+		 * a String first. DOUBLE_BYTE and DOUBLE_SHORT values are encoded as
+		 * whole numbers.
+		 * 
+		 * @param command The command of the message
+		 * @param key The key of the message
+		 * @param val The value type to encode the value as
+		 * @param value The value
+		 * @param args Arguments to append, may be null
+		 * @return A String containing the message to be sent
+		 * @throws ParsingException If an argument is null or the value is out of range
+		 */
+		public static String createMessage( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value val, int value, String[] args ) throws ParsingException {
+			checkHeader( command, key, val );
+			if ( val == ProtocolParsing.Value.DOUBLE_BYTE || val == ProtocolParsing.Value.DOUBLE_SHORT ) {
+				return createMessage( command, key, val, (double) value, args );
+			}
+			
+			int header = command.bitsum + key.bitsum + val.bitsum;
+			
+			if ( val == ProtocolParsing.Value.BYTE && ( value < -255 || value > 255 ) ) {
+				throw new ParsingException( 5, "the value was out of range (-255 to 255)" );
+			}
+			if ( val == ProtocolParsing.Value.SHORT && ( value < -65535 || value > 65535 ) ) {
+				throw new ParsingException( 5, "the value was out of range (-65535 to 65535)" );
+			}
+			if ( value < 0 ) {
+				header += 128;
+				value = -value;
+			}
+			
+			StringBuffer sb = new StringBuffer( 8 );
+			sb.append( (char) header );
+			sb.append( (char) ( value & 0xFF ) );
 			if ( val == ProtocolParsing.Value.SHORT ) {
-				int num = 0;
-				try {
-					num = Integer.parseInt( value );
-				} catch ( NumberFormatException ne ) {
+				sb.append( (char) ( ( value >> 8 ) & 0xFF ) );
+			}
+			appendArgs( sb, args );
+			
+			return sb.toString();
+		}
+		
+		/**
+		 * Creates a FastFormat message from a double without formatting it as a
+		 * String first. BYTE and SHORT values must be whole numbers.
+		 * 
+		 * @param command The command of the message
+		 * @param key The key of the message
+		 * @param val The value type to encode the value as
+		 * @param value The value
+		 * @param args Arguments to append, may be null
+		 * @return A String containing the message to be sent
+		 * @throws ParsingException If an argument is null or the value cannot be encoded as val
+		 */
+		public static String createMessage( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value val, double value, String[] args ) throws ParsingException {
+			checkHeader( command, key, val );
+			if ( val == ProtocolParsing.Value.BYTE || val == ProtocolParsing.Value.SHORT ) {
+				if ( value != (int) value ) {
 					throw new ParsingException( 6, "'" + value + "' is not a valid integer" );
-				} finally {
-					if ( num >= -65535 && num <= 65535 ) {
-						if ( num < 0 ) {
-							header += 128;
-						}
-						num = Math.abs( num );
-						vsect = BitwiseTools.toCharShort( num );
-					} else {
-						throw new ParsingException( 5, "the value was out of range (-65535 to 65535)" );
-					}
 				}
-				
+				return createMessage( command, key, val, (int) value, args );
 			}
-			if ( val == ProtocolParsing.Value.DOUBLE_BYTE || val == ProtocolParsing.Value.DOUBLE_SHORT ) {
-				double d = 0.0;
+			
+			int header = command.bitsum + key.bitsum + val.bitsum;
+			
+			if ( value < 0.0 ) {
+				header += 128;
+				value = Math.abs( value );
+			}
+			
+			int parts = splitDouble( value, val );
+			int whole = parts >>> 16;
+			int frac = parts & 0xFFFF;
+			
+			StringBuffer sb = new StringBuffer( 8 );
+			sb.append( (char) header );
+			if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
+				sb.append( (char) whole );
+				sb.append( (char) frac );
+			} else {
+				sb.append( (char) ( whole & 0xFF ) );
+				sb.append( (char) ( whole >> 8 ) );
+				sb.append( (char) ( frac & 0xFF ) );
+				sb.append( (char) ( frac >> 8 ) );
+			}
+			appendArgs( sb, args );
+			
+			return sb.toString();
+		}
+		
+		/**
+		 * Range checks a positive double and splits it into the whole part and
+		 * the fraction digits sent for DOUBLE_BYTE and DOUBLE_SHORT values.
+		 * 
+		 * @param value A positive double
+		 * @param val DOUBLE_BYTE or DOUBLE_SHORT
+		 * @return The whole part in the upper 16 bits and the fraction digits in the lower 16 bits
+		 * @throws ParsingException If the value does not fit in val
+		 */
+		static int splitDouble( double value, ProtocolParsing.Value val ) throws ParsingException {
+			int whole = MathTools.ipart( value );
+			if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
+				if ( MathTools.numOfPlaces( value ) > 3 || MathTools.fpart( value ) > 255 || whole > 255 ) {
+					throw new ParsingException( 5, "the value was out of range (-255.255 to 255.255)" );
+				}
+			} else {
+				if ( MathTools.numOfPlaces( value ) > 5 || MathTools.fpart( value ) > 65535 || whole > 65535 ) {
+					throw new ParsingException( 5, "the value was out of range (-65535.65535 to 65535.65535)" );
+				}
+			}
+			
+			// Within these ranges the fraction digits are exactly fpart
+			return ( whole << 16 ) | (int) MathTools.fpart( value );
+		}
+		
+		/**
+		 * Turns the whole part and fraction digits of a DOUBLE_BYTE or
+		 * DOUBLE_SHORT value back into a positive double. One division keeps the
+		 * result identical to Double.parseDouble( whole + "." + frac ).
+		 * 
+		 * @param whole The whole part
+		 * @param frac The fraction digits
+		 * @return The positive double
+		 */
+		static double joinDouble( int whole, int frac ) {
+			long scale = 10;
+			while ( scale <= frac ) {
+				scale *= 10;
+			}
+			return ( whole * scale + frac ) / (double) scale;
+		}
+		
+		/**
+		 * Picks the smallest value type that holds a value exactly. Fractions
+		 * are sent as their digits, so a fraction with a leading zero (0.05 is
+		 * sent as 5 and read back as 0.5) cannot be sent as a double type.
+		 * 
+		 * @param value The value to send
+		 * @return The smallest value type that reads back as the same value, or null if none does
+		 */
+		public static ProtocolParsing.Value getSmallestValueType( double value ) {
+			double abs = Math.abs( value );
+			if ( abs <= 65535 && abs == (int) abs ) {
+				return abs <= 255 ? ProtocolParsing.Value.BYTE : ProtocolParsing.Value.SHORT;
+			}
+			if ( !( abs >= 0.001 && abs < 65536 ) ) {
+				// Too small for numOfPlaces and fpart, too large or NaN
+				return null;
+			}
+			for ( int i = 2; i != ProtocolParsing.Value.ALL.length; i++ ) {
 				try {
-					d = Double.parseDouble( value );
-				} catch ( NumberFormatException ex ) {
-					throw new ParsingException( 6, "'" + value + "' is not a valid double" );
-				} finally {
-					if ( d < 0.0 ) {
-						header += 128;
-						d = Math.abs( d );
-					}
-					
-					ParsingException error = new ParsingException( 0, "No reason" );
-					boolean success = false;
-					
-					if ( MathTools.numOfPlaces( d ) <= 3 && MathTools.fpart( d ) <= 255 && MathTools.ipart( d ) <= 255 && val == ProtocolParsing.Value.DOUBLE_BYTE ) {
-						vsect = BitwiseTools.toByteDouble( d );
-						success = true;
-					} else {
-						if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
-							error = new ParsingException( 5, "the value was out of range (-255.255 to 255.255)" );
-						}
-					}
-					
-					if ( MathTools.numOfPlaces( d ) <= 5 && MathTools.fpart( d ) <= 65535 && MathTools.ipart( d ) <= 65535 && val == ProtocolParsing.Value.DOUBLE_SHORT ) {
-						vsect = BitwiseTools.toShortDouble( d );
-						success = true;
-					} else {
-						if ( val == ProtocolParsing.Value.DOUBLE_SHORT ) {
-							error = new ParsingException( 5, "the value was out of range (-65535.65535 to 65535.65535)" );
-						}
-					}
-					if ( !success ) {
-						throw error;
+					int parts = splitDouble( abs, ProtocolParsing.Value.ALL[i] );
+					if ( joinDouble( parts >>> 16, parts & 0xFFFF ) == abs ) {
+						return ProtocolParsing.Value.ALL[i];
 					}
+				} catch ( ParsingException ex ) {
+					// Out of range for this type, try the next
 				}
 			}
-			
+			return null;
+		}
+		
+		// Helper method used by createMessage, validates the header fields
+		private static void checkHeader( ProtocolParsing.Command command, ProtocolParsing.Key key, ProtocolParsing.Value val ) throws ParsingException {
+			if ( command == null ) {
+				throw new ParsingException( 7, "Command Arguement was set to null" );
+			}
+			if ( key == null ) {
+				throw new ParsingException( 7, "Key Arguement was set to null" );
+			}
+			if ( val == null ) {
+				throw new ParsingException( 7, "Value Arguement was set to null" );
+			}
+		}
+		
+		// Helper method used by createMessage, appends comma separated args
+		private static void appendArgs( StringBuffer sb, String[] args ) {
 			if ( args != null ) {
 				for ( int i = 0; i != args.length; i++ ) {
-					asect += args[i];
+					sb.append( args[i] );
 					if ( i != args.length - 1 ) {
-						asect += ",";
+						sb.append( ',' );
 					}
 				}
 			}
-			
-			return (char) header + vsect + asect;
+		}
+		
+		// Helper methods used by the value getters, read the two halves of a DOUBLE_* payload
+		private static int getWholePart( String msg, ProtocolParsing.Value val ) throws ParsingException {
+			if ( msg.length() < 1 + val.length ) {
+				throw new ParsingException( 4, "Double parsing failed" );
+			}
+			if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
+				return msg.charAt( 1 );
+			}
+			return BitwiseTools.makeShort( msg.charAt( 1 ), msg.charAt( 2 ) );
+		}
+		
+		private static int getFracPart( String msg, ProtocolParsing.Value val ) throws ParsingException {
+			if ( msg.length() < 1 + val.length ) {
+				throw new ParsingException( 4, "Double parsing failed" );
+			}
+			if ( val == ProtocolParsing.Value.DOUBLE_BYTE ) {
+				return msg.charAt( 2 );
+			}
+			return BitwiseTools.makeShort( msg.charAt( 3 ), msg.charAt( 4 ) );
 		}
 	}
 	
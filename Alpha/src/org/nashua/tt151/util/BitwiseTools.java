@@ -16,12 +16,17 @@ public class BitwiseTools {
      * @return A byte with the bit removed
      */
     public static int negatebit(int num, int bit) {
-        int power = (int)MathTools.pow(2.0, bit);
-        if ((num & power) == power) {
-            num -= power;
+        if (bit < 0) {
+            return num;
         }
-        
-        return num;
+        if (bit > 30) {
+            // (int)pow(2.0, bit) saturates to Integer.MAX_VALUE here
+            if ((num & Integer.MAX_VALUE) == Integer.MAX_VALUE) {
+                num -= Integer.MAX_VALUE;
+            }
+            return num;
+        }
+        return num & ~(1 << bit);
     }
     
     /**
@@ -32,7 +37,10 @@ public class BitwiseTools {
      * @return 
      */
     public static int negatebits(int num, int bitstart, int bitend) {
-       
+        if (bitstart >= 0 && bitstart <= bitend && bitend <= 30) {
+            int width = bitend - bitstart + 1;
+            return num & ~(((1 << width) - 1) << bitstart);
+        }
         for (int i = bitstart; i != bitend + 1; i++) {
             num = negatebit(num, i);
         }
@@ -46,16 +54,7 @@ public class BitwiseTools {
      * @return An integer representing an unsigned short (0-65535)
      */
     public static int makeShort(int one, int two) {
-        int s = 0;
-        
-        for (int i = 0; i != 8; i++) {
-            int pow = (int)MathTools.pow(2.0, i);
-            int pow2 = (int)MathTools.pow(2.0, i+8);
-            if ((one & pow) == pow) { s += pow; }
-            if ((two & pow) == pow) { s += pow2; }
-            
-        }
-        return s;
+        return (one & 0xFF) | ((two & 0xFF) << 8);
     }
     
     /**
@@ -64,29 +63,14 @@ public class BitwiseTools {
      * @return An array of two characters representing the short
      */
     public static String toCharShort(int sh) {
-    	int c1 = 0, c2 = 0;
-    	
-    	for (int i = 0; i != 8; i++) {
-            int pow = (int)MathTools.pow(2.0, i);
-            int pow2 = (int)MathTools.pow(2.0, i+8);
-            if ((sh & pow) == pow) { c1 += pow; }
-            if ((sh & pow2) == pow2) { c2 += pow; }
-    	}   
-    	return "" + (char)c1 + (char)c2;
+        return "" + (char) (sh & 0xFF) + (char) ((sh >> 8) & 0xFF);
     }
     
     public static String toShortDouble(double d) {
     	String s = "";
     	
     	String whole = toCharShort((int)MathTools.floor(d, 0));
-    	
-    	double frac = d - Math.floor(d);
-    	do {
-    		frac  *= 10.0;
-    		frac = MathTools.round(frac, 5);
-    	} while (frac - MathTools.floor(frac, 0) != 0);
-    	
-    	String fraction = toCharShort((int)frac);
+    	String fraction = toCharShort(fracDigits(d));
     	
     	s = whole + fraction;
     	
@@ -96,17 +80,42 @@ public class BitwiseTools {
     public static String toByteDouble(double d) {
     	
     	String whole = "" + (char)MathTools.floor(d, 0);
-    	double frac = d - MathTools.floor(d, 0);
-    	do {
-    		frac *= 10.0;
-    		frac = MathTools.round(frac, 5);
-    	} while (frac - MathTools.floor(frac, 0) != 0);
-    	
-    	String fraction = "" + (char)((int)frac);
+    	String fraction = "" + (char)fracDigits(d);
     	
     	return whole + fraction;
     }
     
+    /**
+     * Returns the digits after the decimal point of a positive double as a
+     * whole number, the way they are sent in DOUBLE_BYTE and DOUBLE_SHORT
+     * FastFormat values (12.34 returns 34)
+     * @param d A positive double
+     * @return The fraction digits as a whole number
+     */
+    public static int fracDigits(double d) {
+        // Every value FastFormat can send has at most 5 places, and for those
+        // the loop below gives the same digits as fpart
+        if (d >= 1e-3 && d < 1e7 && MathTools.numOfPlaces(d) <= 5) {
+            return (int) MathTools.fpart(d);
+        }
+        double frac = d - MathTools.floor(d, 0);
+        do {
+            frac *= 10.0;
+            if (frac * 100000.0 >= Integer.MAX_VALUE) {
+                // MathTools.round overflows its int cast from here on and the
+                // loop never reaches a whole number, so round to 5 places instead
+                long digits = (long) ((d - MathTools.floor(d, 0)) * 100000.0 + 0.5);
+                while (digits != 0 && digits % 10 == 0) {
+                    digits /= 10;
+                }
+                return (int) digits;
+            }
+            frac = MathTools.round(frac, 5);
+        } while (frac - MathTools.floor(frac, 0) != 0);
+        
+        return (int)frac;
+    }
+    
    /**
      * Returns an int representing an unsigned byte. -128 is 255, -127 is 254, etc
      * @param num A byte to unsign
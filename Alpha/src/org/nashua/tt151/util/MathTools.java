@@ -11,6 +11,15 @@ public final class MathTools {
      */
     private MathTools() {
     }
+    
+    // Every power of 10 up to 10^22 is exactly representable as a double
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    // Decimals with up to 15 significant digits map to a unique double
+    private static final double MAX_EXACT_DIGITS = 1e15;
 
     /**
      * Rounds a number up to a certain decimal place
@@ -45,6 +54,13 @@ public final class MathTools {
         if (exp==0) {
             return 1;
         }
+        // Powers of 10 and 2 in range are exact, so these give the same result as the loop
+        if (base==10.0 && exp<POW10.length) {
+            return POW10[exp];
+        }
+        if (base==2.0 && exp<63) {
+            return (double) (1L << exp);
+        }
         double v = base;
         for (int i=1; i<exp; i++) {
             v *= base;
@@ -52,26 +68,19 @@ public final class MathTools {
         return v;
     }
     
+    /**
+     * Returns the number of digits after the decimal point in String.valueOf(number)
+     * @param number A double
+     * @return The number of decimal places
+     */
     public static int numOfPlaces(double number) {
-    	int count = 0;
-    	
-    	String n = String.valueOf(number);
-    	String[] splitted = StringTools.split(n, '.');
-    	
-    	count = splitted[1].length();
-    	
-    	/*
-    	double frac = number - floor(number, 0);
-    	
-    	while (frac - floor(frac, 0) != 0) {
-    		
-    		frac *= 10.0;
-    		frac = round(frac, 10);
-    		System.out.println(frac);
-    		count++;
-    	}*/
-    	
-    	return count;
+        int places = shortestPlaces(Math.abs(number));
+        if (places == -1) {
+            String n = String.valueOf(number);
+            String[] splitted = StringTools.split(n, '.');
+            places = splitted[1].length();
+        }
+        return places;
     }
     
     /**
@@ -80,15 +89,23 @@ public final class MathTools {
      * @return The double's decimal part as a whole number
      */
     public static double fpart(double number) {
-    	String n = String.valueOf(number);
-    	String[] splitted = StringTools.split(n, '.');
-    	int parsed = Integer.parseInt(splitted[1]);
-    	
-    	return (double)parsed;
+        double abs = Math.abs(number);
+        int places = shortestPlaces(abs);
+        if (places != -1) {
+            long frac = scaled(abs, places) % (long) POW10[places];
+            if (frac <= Integer.MAX_VALUE) {
+                return (double) frac;
+            }
+        }
+        String n = String.valueOf(number);
+        String[] splitted = StringTools.split(n, '.');
+        int parsed = Integer.parseInt(splitted[1]);
+        
+        return (double)parsed;
     }
     
     public static int ipart(double number) {
-    	return (int)floor(number, 0);
+        return (int) number;
     }
     
     /**
@@ -128,4 +145,55 @@ public final class MathTools {
 	public static double clamp( double min, double max, double val ) {
 		return Math.min( max, Math.max( min, val ) );
 	}
+    
+    /**
+     * Finds the number of decimal places String.valueOf prints for a positive
+     * double without creating a String. A decimal with at most 15 significant
+     * digits has exactly one double closest to it, so the first k for which
+     * some k place decimal rounds back to the number is the count Java prints.
+     * @param abs A positive double
+     * @return The number of decimal places, or -1 if String.valueOf has to be used
+     */
+    private static int shortestPlaces(double abs) {
+        // String.valueOf uses scientific notation outside this range
+        if (!(abs >= 1e-3 && abs < 1e7)) {
+            return abs == 0.0 ? 1 : -1;
+        }
+        for (int k = 1; k < POW10.length; k++) {
+            long digits = scaled(abs, k);
+            if (digits == -2) {
+                return -1;
+            }
+            if (digits >= 0) {
+                return k;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the digits of abs with k decimal places as a whole number if that
+     * decimal rounds back to exactly abs
+     * @return The digits, -1 if no k place decimal equals abs, or -2 if the
+     * digits are too long to check exactly
+     */
+    private static long scaled(double abs, int k) {
+        double p = POW10[k];
+        double x = abs * p;
+        if (x >= MAX_EXACT_DIGITS) {
+            return -2;
+        }
+        long m = (long) (x + 0.5);
+        // abs * p may be off by one unit in the last place, so check the neighbours
+        if (m / p == abs) {
+            return m;
+        }
+        if ((m - 1) / p == abs) {
+            return m - 1;
+        }
+        if ((m + 1) / p == abs) {
+            return m + 1;
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,83 @@
+package org.nashua.tt151.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nashua.tt151.libraries.parsers.ParsingException;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.FastParser;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FastFormat creation and value decoding for each value type, using the
+ * match values that fit the type. Messages carry a channel ID as their args.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class FastParserBenchmark {
+	@Param( { "b", "s", "d", "e" } )
+	public char type;
+	
+	private Value value;
+	private double[] values;
+	private String[] valueStrings;
+	private String[] messages;
+	private final String[] args = { "3" };
+	private int i;
+	
+	@Setup
+	public void setup() throws ParsingException {
+		for ( int n = 0; n < Value.ALL.length; n++ ) {
+			if ( Value.ALL[n].shorthand == type ) {
+				value = Value.ALL[n];
+			}
+		}
+		values = MatchMessages.getValues( value );
+		valueStrings = new String[values.length];
+		messages = new String[values.length];
+		for ( int n = 0; n < values.length; n++ ) {
+			boolean whole = value == Value.BYTE || value == Value.SHORT;
+			valueStrings[n] = whole ? "" + (int) values[n] : "" + values[n];
+			messages[n] = FastParser.createMessage( Command.Send, Key.PWMValue, value, values[n], args );
+		}
+	}
+	
+	private int next() {
+		return i = ( i + 1 ) & ( MatchMessages.SIZE - 1 );
+	}
+	
+	@Benchmark
+	public String createMessage() throws ParsingException {
+		return FastParser.createMessage( Command.Send, Key.PWMValue, value, values[next()], args );
+	}
+	
+	@Benchmark
+	public String createMessageFromString() throws ParsingException {
+		return FastParser.createMessage( Command.Send, Key.PWMValue, value, valueStrings[next()], args );
+	}
+	
+	@Benchmark
+	public String getValue() throws ParsingException {
+		return FastParser.getValue( messages[next()] );
+	}
+	
+	@Benchmark
+	public double getDoubleValue() throws ParsingException {
+		return FastParser.getDoubleValue( messages[next()] );
+	}
+}
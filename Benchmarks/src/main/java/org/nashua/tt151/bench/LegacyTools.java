@@ -0,0 +1,128 @@
+package org.nashua.tt151.bench;
+
+import org.nashua.tt151.util.StringTools;
+
+/**
+ * Frozen copy of the MathTools and BitwiseTools helpers as they were before
+ * they were computed arithmetically. ToolsBenchmark measures the current
+ * helpers against these, and ToolsEquivalenceTest checks that both give the
+ * same results. Do not change these to match the tree.
+ *
+ * The only difference from the original code is that fracDigits gives up
+ * and returns HUNG where the original looped forever.
+ */
+public final class LegacyTools {
+	/**
+	 * Returned by fracDigits where the original never returned
+	 */
+	public static final int HUNG = -1;
+	
+	// The original loop never ends once it has run this many times
+	private static final int MAX_STEPS = 64;
+	
+	private LegacyTools() {}
+	
+	public static double ceil( double val, int places ) {
+		return ( (int) ( val * pow( 10, places ) ) ) / pow( 10, places ) + pow( 10, -places );
+	}
+	
+	public static double floor( double val, int places ) {
+		return ( (int) ( val * pow( 10, places ) ) ) / pow( 10, places );
+	}
+	
+	public static double pow( double base, int exp ) {
+		if ( exp < 0 ) {
+			return 1.0 / pow( base, -exp );
+		}
+		if ( exp == 0 ) {
+			return 1;
+		}
+		double v = base;
+		for ( int i = 1; i < exp; i++ ) {
+			v *= base;
+		}
+		return v;
+	}
+	
+	public static int numOfPlaces( double number ) {
+		String n = String.valueOf( number );
+		String[] splitted = StringTools.split( n, '.' );
+		return splitted[1].length();
+	}
+	
+	public static double fpart( double number ) {
+		String n = String.valueOf( number );
+		String[] splitted = StringTools.split( n, '.' );
+		int parsed = Integer.parseInt( splitted[1] );
+		return (double) parsed;
+	}
+	
+	public static int ipart( double number ) {
+		return (int) floor( number, 0 );
+	}
+	
+	public static double round( double val, int places ) {
+		return ( (int) ( val * pow( 10, places ) ) ) % 10 > 4 ? ceil( val, places ) : floor( val, places );
+	}
+	
+	public static int negatebit( int num, int bit ) {
+		int power = (int) pow( 2.0, bit );
+		if ( ( num & power ) == power ) {
+			num -= power;
+		}
+		return num;
+	}
+	
+	public static int negatebits( int num, int bitstart, int bitend ) {
+		for ( int i = bitstart; i != bitend + 1; i++ ) {
+			num = negatebit( num, i );
+		}
+		return num;
+	}
+	
+	public static int makeShort( int one, int two ) {
+		int s = 0;
+		for ( int i = 0; i != 8; i++ ) {
+			int pow = (int) pow( 2.0, i );
+			int pow2 = (int) pow( 2.0, i + 8 );
+			if ( ( one & pow ) == pow ) {
+				s += pow;
+			}
+			if ( ( two & pow ) == pow ) {
+				s += pow2;
+			}
+		}
+		return s;
+	}
+	
+	public static String toCharShort( int sh ) {
+		int c1 = 0, c2 = 0;
+		for ( int i = 0; i != 8; i++ ) {
+			int pow = (int) pow( 2.0, i );
+			int pow2 = (int) pow( 2.0, i + 8 );
+			if ( ( sh & pow ) == pow ) {
+				c1 += pow;
+			}
+			if ( ( sh & pow2 ) == pow2 ) {
+				c2 += pow;
+			}
+		}
+		return "" + (char) c1 + (char) c2;
+	}
+	
+	/**
+	 * @return The fraction digits, or HUNG where the original never returned
+	 */
+	public static int fracDigits( double d ) {
+		double frac = d - floor( d, 0 );
+		int steps = 0;
+		do {
+			if ( ++steps > MAX_STEPS ) {
+				return HUNG;
+			}
+			frac *= 10.0;
+			frac = round( frac, 5 );
+		} while ( frac - floor( frac, 0 ) != 0 );
+		return (int) frac;
+	}
+}
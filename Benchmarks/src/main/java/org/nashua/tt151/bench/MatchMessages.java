@@ -0,0 +1,144 @@
+package org.nashua.tt151.bench;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.StringParser;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+import org.nashua.tt151.util.MathTools;
+
+/**
+ * The messages the robot sends the dashboard over a match. Every tick Alpha
+ * sends the eight PWM channels, the shooter pot and the five digital IO
+ * channels from DriveTrain and Shooter, plus its status, in the full
+ * name/slot/type form. Autonomous also queries whether the target is hot.
+ * The values come from a simulated 15 second autonomous and 135 second
+ * tele-op period, rounded to 2 places the same way Dash rounds them.
+ */
+public final class MatchMessages {
+	/**
+	 * Number of messages, a power of two so benchmarks can cycle with a mask
+	 */
+	public static final int SIZE = 8192;
+	
+	private static final double MATCH_SECONDS = 150;
+	private static final double AUTONOMOUS_SECONDS = 15;
+	// Channels sent per tick
+	private static final int PER_TICK = 15;
+	
+	private static final String[] messages = new String[SIZE];
+	private static final double[] values = new double[SIZE];
+	
+	static {
+		int ticks = SIZE / PER_TICK + 1;
+		double dt = MATCH_SECONDS / ticks;
+		double left = 0, right = 0;
+		int n = 0;
+		for ( int tick = 0; n < SIZE; tick++ ) {
+			double t = tick * dt;
+			boolean auto = t < AUTONOMOUS_SECONDS;
+			
+			// Drive train, driving 12.5 feet at half speed in autonomous
+			double l, r;
+			if ( auto ) {
+				l = t < 8 ? 0.5 : 0;
+				r = -l;
+			} else {
+				double y = 0.8 * Math.sin( 0.7 * t ) + 0.2 * Math.sin( 3.1 * t );
+				double x = 0.4 * Math.sin( 1.3 * t + 1 );
+				l = clamp( y + x );
+				r = -clamp( y - x );
+			}
+			left += l * 100 * dt;
+			right += -r * 100 * dt;
+			
+			// Shooter winds for 4 seconds, fires and decouples every 12 seconds
+			double cycle = t % 12;
+			boolean winding = cycle < 4;
+			boolean loaded = cycle >= 4 && cycle < 10;
+			double pot = 0.5 + 4 * Math.min( cycle, 4 ) / 4;
+			
+			n = add( n, Key.PWMValue, l, "Right 1", 1, 'T' );
+			n = add( n, Key.PWMValue, l, "Right 2", 2, 'T' );
+			n = add( n, Key.PWMValue, -r, "Left 1", 3, 'T' );
+			n = add( n, Key.PWMValue, -r, "Left 2", 4, 'T' );
+			n = add( n, Key.DigitalIO, left, "Left", 1, 'E' );
+			n = add( n, Key.DigitalIO, right, "Right", 3, 'E' );
+			n = add( n, Key.PWMValue, winding ? 1.0 : 0, "Winch", 5, 'T' );
+			n = add( n, Key.PWMValue, winding ? -0.6 : 0, "WTWTW", 6, 'T' );
+			n = add( n, Key.PWMValue, cycle >= 10 ? 1.0 : 0, "Decoupler", 7, 'T' );
+			n = add( n, Key.PWMValue, auto ? 0 : 0.75 * Math.sin( 0.4 * t ), "3rd Arm", 8, 'T' );
+			n = add( n, Key.AnalogValue, pot, "WTWTW Pot", 1, 'P' );
+			n = add( n, Key.DigitalIO, loaded ? 1.0 : 0, "Loaded", 5, 'L' );
+			n = add( n, Key.DigitalIO, cycle < 10 ? 1.0 : 0, "Coupled", 6, 'L' );
+			n = add( n, Key.DigitalIO, cycle >= 10 ? 1.0 : 0, "Decoupled", 7, 'L' );
+			if ( n < SIZE ) {
+				values[n] = auto ? 'A' : 'T';
+				messages[n++] = StringParser.createMessage( Command.Send, Key.Status, auto ? "A" : "T", new String[] {} );
+			}
+			if ( auto && tick % 40 == 0 && n < SIZE - 1 ) {
+				values[n] = 0;
+				messages[n++] = StringParser.createMessage( Command.Query, Key.TargetHot, "", new String[] {} );
+				values[n] = 1;
+				messages[n++] = StringParser.createMessage( Command.Reply, Key.TargetHot, "1", new String[] {} );
+			}
+		}
+	}
+	
+	// Prevent instantiation
+	private MatchMessages() {}
+	
+	private static int add( int n, Key key, double value, String name, int slot, char type ) {
+		if ( n < SIZE ) {
+			value = MathTools.round( value, 2 );
+			values[n] = value;
+			messages[n] = StringParser.createMessage( Command.Send, key, "" + value, new String[] { name, "" + slot, "" + type } );
+			n++;
+		}
+		return n;
+	}
+	
+	private static double clamp( double v ) {
+		return v > 1 ? 1 : ( v < -1 ? -1 : v );
+	}
+	
+	/**
+	 * @return A copy of the StringFormat messages in the order they were sent
+	 */
+	public static String[] getMessages() {
+		return messages.clone();
+	}
+	
+	/**
+	 * Values of the messages the same way FastFormat would carry them. Each
+	 * type gets the values of the match that it is the smallest fit for, the
+	 * match has no whole numbers above 255 so SHORT gets the encoder distances
+	 * in whole inches.
+	 * 
+	 * @param type The value type
+	 * @return SIZE values that can be encoded as type
+	 */
+	public static double[] getValues( Value type ) {
+		double[] fit = new double[SIZE];
+		int count = 0;
+		for ( int i = 0; i < SIZE; i++ ) {
+			double v = values[i];
+			if ( type == Value.SHORT ) {
+				v = (int) Math.abs( v );
+				if ( v > 255 && v <= 65535 ) {
+					fit[count++] = v;
+				}
+			} else if ( ProtocolParsing.FastParser.getSmallestValueType( v ) == type ) {
+				fit[count++] = v;
+			}
+		}
+		if ( count == 0 ) {
+			throw new IllegalStateException( "No values in the match fit " + type.shorthand );
+		}
+		// Repeat the values that fit to fill the array
+		for ( int i = count; i < SIZE; i++ ) {
+			fit[i] = fit[i % count];
+		}
+		return fit;
+	}
+}
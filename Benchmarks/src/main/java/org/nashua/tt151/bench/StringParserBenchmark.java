@@ -0,0 +1,90 @@
+package org.nashua.tt151.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.StringParser;
+import org.nashua.tt151.libraries.parsers.StringMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StringFormat parsing and creation over the match message mix. Each call
+ * handles the next message of the mix.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class StringParserBenchmark {
+	private String[] messages;
+	private StringMessage[] parsed;
+	private Command[] commands;
+	private Key[] keys;
+	private String[] values;
+	private String[][] args;
+	private final StringMessage reused = new StringMessage();
+	private final MessageCursor cursor = new MessageCursor();
+	private int i;
+	
+	@Setup
+	public void setup() {
+		messages = MatchMessages.getMessages();
+		parsed = new StringMessage[messages.length];
+		commands = new Command[messages.length];
+		keys = new Key[messages.length];
+		values = new String[messages.length];
+		args = new String[messages.length][];
+		for ( int n = 0; n < messages.length; n++ ) {
+			parsed[n] = StringParser.parse( messages[n] );
+			commands[n] = parsed[n].getCommand();
+			keys[n] = parsed[n].getKey();
+			values[n] = parsed[n].getValue();
+			args[n] = parsed[n].getArgs() == null ? new String[] {} : parsed[n].getArgs();
+		}
+	}
+	
+	private int next() {
+		return i = ( i + 1 ) & ( MatchMessages.SIZE - 1 );
+	}
+	
+	@Benchmark
+	public StringMessage parse() {
+		return StringParser.parse( messages[next()] );
+	}
+	
+	@Benchmark
+	public StringMessage parseInto() {
+		return StringParser.parse( messages[next()], reused );
+	}
+	
+	@Benchmark
+	public Key cursor() {
+		MessageCursor c = cursor;
+		c.reset( messages[next()] );
+		return c.getKey();
+	}
+	
+	@Benchmark
+	public String createMessage() {
+		int n = next();
+		return StringParser.createMessage( commands[n], keys[n], values[n], args[n] );
+	}
+	
+	@Benchmark
+	public String convert() {
+		return parsed[next()].convert();
+	}
+}
@@ -0,0 +1,101 @@
+package org.nashua.tt151.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+import org.nashua.tt151.util.BitwiseTools;
+import org.nashua.tt151.util.MathTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The MathTools and BitwiseTools helpers used by FastFormat, each next to
+ * its frozen copy in LegacyTools, over the DOUBLE_SHORT values of the match
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ToolsBenchmark {
+	private double[] values;
+	private int[] shorts;
+	private int i;
+	
+	@Setup
+	public void setup() {
+		double[] match = MatchMessages.getValues( Value.DOUBLE_SHORT );
+		values = new double[match.length];
+		shorts = new int[match.length];
+		for ( int n = 0; n < match.length; n++ ) {
+			// fracDigits only takes positive values
+			values[n] = Math.abs( match[n] );
+			shorts[n] = (int) ( values[n] * 100 ) & 0xFFFF;
+		}
+	}
+	
+	private int next() {
+		return i = ( i + 1 ) & ( MatchMessages.SIZE - 1 );
+	}
+	
+	@Benchmark
+	public int numOfPlaces() {
+		return MathTools.numOfPlaces( values[next()] );
+	}
+	
+	@Benchmark
+	public int numOfPlacesLegacy() {
+		return LegacyTools.numOfPlaces( values[next()] );
+	}
+	
+	@Benchmark
+	public double fpart() {
+		return MathTools.fpart( values[next()] );
+	}
+	
+	@Benchmark
+	public double fpartLegacy() {
+		return LegacyTools.fpart( values[next()] );
+	}
+	
+	@Benchmark
+	public int fracDigits() {
+		return BitwiseTools.fracDigits( values[next()] );
+	}
+	
+	@Benchmark
+	public int fracDigitsLegacy() {
+		return LegacyTools.fracDigits( values[next()] );
+	}
+	
+	@Benchmark
+	public String toCharShort() {
+		return BitwiseTools.toCharShort( shorts[next()] );
+	}
+	
+	@Benchmark
+	public String toCharShortLegacy() {
+		return LegacyTools.toCharShort( shorts[next()] );
+	}
+	
+	@Benchmark
+	public int makeShort() {
+		int s = shorts[next()];
+		return BitwiseTools.makeShort( s & 0xFF, s >> 8 );
+	}
+	
+	@Benchmark
+	public int makeShortLegacy() {
+		int s = shorts[next()];
+		return LegacyTools.makeShort( s & 0xFF, s >> 8 );
+	}
+}
@@ -0,0 +1,82 @@
+package org.nashua.tt151.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nashua.tt151.libraries.parsers.ValueParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ValueParser conversions and parsing over the values of the match
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ValueParserBenchmark {
+	private double[] doubles;
+	private int[] ints;
+	private String[] strings;
+	private int i;
+	
+	@Setup
+	public void setup() {
+		// The numeric values of the match, status and query values are not numbers
+		String[] messages = MatchMessages.getMessages();
+		String[] numeric = new String[messages.length];
+		int count = 0;
+		for ( int n = 0; n < messages.length; n++ ) {
+			// The value is between the second and third colon
+			int start = messages[n].indexOf( ':', 2 ) + 1;
+			int end = messages[n].indexOf( ':', start );
+			String value = messages[n].substring( start, end == -1 ? messages[n].length() : end );
+			double d = ValueParser.ParseDouble( value, 0, value.length() );
+			if ( d == d ) {
+				numeric[count++] = value;
+			}
+		}
+		doubles = new double[MatchMessages.SIZE];
+		ints = new int[MatchMessages.SIZE];
+		strings = new String[MatchMessages.SIZE];
+		for ( int n = 0; n < MatchMessages.SIZE; n++ ) {
+			strings[n] = numeric[n % count];
+			doubles[n] = ValueParser.ParseDouble( strings[n], 0, strings[n].length() );
+			ints[n] = (int) doubles[n];
+		}
+	}
+	
+	private int next() {
+		return i = ( i + 1 ) & ( MatchMessages.SIZE - 1 );
+	}
+	
+	@Benchmark
+	public String convertInt() {
+		return ValueParser.Convert( ints[next()], -1000, 1000 );
+	}
+	
+	@Benchmark
+	public String convertDouble() {
+		return ValueParser.Convert( doubles[next()], -1000, 1000, 2 );
+	}
+	
+	@Benchmark
+	public double parseDouble() {
+		return ValueParser.ParseDouble( strings[next()] );
+	}
+	
+	@Benchmark
+	public double parseDoubleRegion() {
+		String s = strings[next()];
+		return ValueParser.ParseDouble( s, 0, s.length() );
+	}
+}
@@ -0,0 +1,321 @@
+package org.nashua.tt151.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nashua.tt151.FrameDecoder;
+import org.nashua.tt151.libraries.parsers.FastBufferCodec;
+import org.nashua.tt151.libraries.parsers.FastCodec;
+import org.nashua.tt151.libraries.parsers.FastMessage;
+import org.nashua.tt151.libraries.parsers.Framing;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+import org.nashua.tt151.libraries.parsers.ParsingException;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.FastParser;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+
+/**
+ * Checks that FastCodec and FastBufferCodec write the same bytes the
+ * String path sends, Framing.FAST and a FastParser message in a frame, and
+ * that those bytes decode to what FastParser reads from the String. The
+ * bytes are also passed through the dashboard's FrameDecoder, alone, in
+ * batches and split across reads, and packed into a datagram the way the
+ * robot's DatagramSender does. Values cover every BYTE, a spread of SHORT
+ * and the DOUBLE_* values of the match, positive and negative.
+ */
+public class FastLayoutTest {
+	private static final long SEED = 151;
+	private static final Command[] COMMANDS = { Command.Query, Command.Reply, Command.Send };
+	private static final String[][] ARGS = { null, { "3" }, { "Right 1", "1", "T", "3" } };
+	
+	private static final List<Sample> samples = new ArrayList<Sample>();
+	
+	private static final class Sample {
+		final Command command;
+		final Key key;
+		final Value val;
+		final double value;
+		final String[] args;
+		// Framing.FAST and the FastParser message, as the String path sends it
+		final String msg;
+		
+		Sample( Command command, Key key, Value val, double value, String[] args ) throws ParsingException {
+			this.command = command;
+			this.key = key;
+			this.val = val;
+			this.value = value;
+			this.args = args;
+			this.msg = Framing.FAST + FastParser.createMessage( command, key, val, value, args );
+		}
+		
+		@Override
+		public String toString() {
+			return command.shorthand + ":" + key.shorthand + ":" + val.shorthand + ":" + value + ":" + Arrays.toString( args );
+		}
+	}
+	
+	@BeforeClass
+	public static void createSamples() throws ParsingException {
+		for ( int v = 0; v < Value.ALL.length; v++ ) {
+			Value val = Value.ALL[v];
+			double[] values = getValues( val );
+			for ( int c = 0; c < COMMANDS.length; c++ ) {
+				for ( int k = 0; k < Key.ALL.length; k++ ) {
+					for ( int a = 0; a < ARGS.length; a++ ) {
+						for ( int n = 0; n < values.length; n++ ) {
+							samples.add( new Sample( COMMANDS[c], Key.ALL[k], val, values[n], ARGS[a] ) );
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private static double[] getValues( Value val ) {
+		Set<Double> values = new LinkedHashSet<Double>();
+		if ( val == Value.BYTE ) {
+			for ( int n = -255; n <= 255; n++ ) {
+				values.add( (double) n );
+			}
+		} else if ( val == Value.SHORT ) {
+			for ( int n = -65535; n <= 65535; n += 257 ) {
+				values.add( (double) n );
+			}
+			values.add( 65535.0 );
+		} else {
+			double[] match = MatchMessages.getValues( val );
+			for ( int n = 0; n < match.length && values.size() < 400; n++ ) {
+				values.add( match[n] );
+				values.add( -match[n] );
+			}
+			double max = val == Value.DOUBLE_BYTE ? 255.255 : 65535.65535;
+			values.add( max );
+			values.add( -max );
+			values.add( 0.0 );
+		}
+		double[] array = new double[values.size()];
+		int n = 0;
+		for ( Double d : values ) {
+			array[n++] = d;
+		}
+		return array;
+	}
+	
+	@Test
+	public void encodeMatchesFraming() throws ParsingException {
+		char[] chars = new char[Framing.MAX_MESSAGE_LENGTH + 1];
+		byte[] bytes = new byte[Framing.MAX_MESSAGE_LENGTH + 8];
+		ByteBuffer buf = ByteBuffer.allocate( Framing.MAX_MESSAGE_LENGTH + 8 );
+		for ( Sample s : samples ) {
+			byte[] expected = toBytes( chars, Framing.writeFrame( chars, 0, s.msg ) );
+			assertEquals( s.toString(), expected.length, FastCodec.getFrameLength( s.val, s.args ) );
+			
+			// Off the start of the buffer, the way DatagramSender packs frames
+			int n = FastCodec.encode( bytes, 5, s.command, s.key, s.val, s.value, s.args );
+			assertArrayEquals( s.toString(), expected, Arrays.copyOfRange( bytes, 5, 5 + n ) );
+			if ( s.val == Value.BYTE || s.val == Value.SHORT ) {
+				n = FastCodec.encode( bytes, 5, s.command, s.key, s.val, (int) s.value, s.args );
+				assertArrayEquals( s.toString(), expected, Arrays.copyOfRange( bytes, 5, 5 + n ) );
+			}
+			
+			buf.clear();
+			buf.position( 3 );
+			assertTrue( s.toString(), FastBufferCodec.encode( buf, s.command, s.key, s.val, s.value, s.args ) );
+			assertArrayEquals( s.toString(), expected, Arrays.copyOfRange( buf.array(), 3, buf.position() ) );
+			
+			// Does not fit, nothing is written
+			assertEquals( s.toString(), 0, FastCodec.encode( bytes, bytes.length - expected.length + 1, s.command, s.key, s.val, s.value, s.args ) );
+			buf.clear();
+			buf.limit( expected.length - 1 );
+			assertFalse( s.toString(), FastBufferCodec.encode( buf, s.command, s.key, s.val, s.value, s.args ) );
+			assertEquals( s.toString(), 0, buf.position() );
+		}
+	}
+	
+	@Test
+	public void decodeMatchesFastParser() throws ParsingException {
+		FastMessage fm = new FastMessage();
+		byte[] bytes = new byte[Framing.MAX_MESSAGE_LENGTH + 1];
+		for ( Sample s : samples ) {
+			int end = Framing.writeFrame( bytes, 0, s.msg );
+			assertTrue( s.toString(), FastCodec.decode( bytes, 1, end - 1, fm ) );
+			check( s, fm );
+		}
+	}
+	
+	/**
+	 * Frames in one stream, every other run of them in a batch, read in random
+	 * pieces the way ServerConnection hands them to FrameDecoder
+	 */
+	@Test
+	public void frameDecoder() throws ParsingException {
+		Random random = new Random( SEED );
+		ByteBuffer stream = ByteBuffer.allocate( samples.size() * ( Framing.MAX_MESSAGE_LENGTH + 1 ) );
+		char[] batch = new char[Framing.MAX_BATCH_LENGTH + Framing.BATCH_HEADER_LENGTH];
+		int n = 0;
+		while ( n < samples.size() ) {
+			int run = 1 + random.nextInt( 20 );
+			if ( random.nextBoolean() ) {
+				int end = Framing.BATCH_HEADER_LENGTH;
+				for ( int i = 0; i < run && n < samples.size(); i++ ) {
+					end = Framing.writeFrame( batch, end, samples.get( n++ ).msg );
+				}
+				Framing.writeBatchHeader( batch, 0, end - Framing.BATCH_HEADER_LENGTH );
+				stream.put( toBytes( batch, end ) );
+			} else {
+				for ( int i = 0; i < run && n < samples.size(); i++ ) {
+					assertTrue( FastBufferCodec.encode( stream, samples.get( n ).command, samples.get( n ).key, samples.get( n ).val, samples.get( n ).value, samples.get( n ).args ) );
+					n++;
+				}
+			}
+		}
+		stream.flip();
+		
+		final FastMessage fm = new FastMessage();
+		final int[] received = new int[1];
+		FrameDecoder decoder = new FrameDecoder( new FrameDecoder.FrameListener() {
+			@Override
+			public void onMessage( ByteBuffer msg ) {
+				Sample s = samples.get( received[0]++ );
+				assertTrue( s.toString(), FastBufferCodec.decode( msg, fm ) );
+				assertFalse( msg.hasRemaining() );
+				try {
+					check( s, fm );
+				} catch ( ParsingException e ) {
+					throw new AssertionError( s.toString(), e );
+				}
+			}
+		} );
+		while ( stream.hasRemaining() ) {
+			ByteBuffer piece = stream.slice();
+			piece.limit( Math.min( piece.limit(), 1 + random.nextInt( 600 ) ) );
+			stream.position( stream.position() + piece.limit() );
+			decoder.read( piece );
+		}
+		assertEquals( samples.size(), received[0] );
+		assertEquals( 0, decoder.getPendingCount() );
+	}
+	
+	/**
+	 * Packs frames into datagrams the way DatagramSender does, with a
+	 * StringFormat frame among them, and reads them back the way
+	 * ServerConnection.readDatagrams does
+	 */
+	@Test
+	public void datagrams() throws ParsingException {
+		byte[] datagram = new byte[1024];
+		FastMessage fm = new FastMessage();
+		String string = "S:AV:0.25:1";
+		int n = 0;
+		for ( int sequence = 0; n < samples.size(); sequence++ ) {
+			int first = n;
+			int end = Framing.DATAGRAM_HEADER_LENGTH;
+			end = Framing.writeFrame( datagram, end, string );
+			while ( n < samples.size() ) {
+				Sample s = samples.get( n );
+				if ( end + FastCodec.getFrameLength( s.val, s.args ) > datagram.length ) {
+					break;
+				}
+				end += FastCodec.encode( datagram, end, s.command, s.key, s.val, s.value, s.args );
+				n++;
+			}
+			Framing.writeDatagramHeader( datagram, 0, sequence );
+			
+			assertEquals( sequence & Framing.MAX_DATAGRAM_SEQUENCE, Framing.getDatagramSequence( (char) datagram[0], (char) datagram[1] ) );
+			int offset = Framing.DATAGRAM_HEADER_LENGTH;
+			int frameEnd = Framing.getFrameEnd( datagram, offset, end );
+			assertFalse( FastCodec.decode( datagram, offset + 1, frameEnd - offset - 1, fm ) );
+			assertEquals( string, new String( datagram, offset + 1, frameEnd - offset - 1, StandardCharsets.ISO_8859_1 ) );
+			offset = frameEnd;
+			for ( int i = first; i < n; i++ ) {
+				frameEnd = Framing.getFrameEnd( datagram, offset, end );
+				if ( frameEnd == -1 ) {
+					fail( "Frame " + samples.get( i ) + " runs past the end of datagram " + sequence );
+				}
+				assertTrue( samples.get( i ).toString(), FastCodec.decode( datagram, offset + 1, frameEnd - offset - 1, fm ) );
+				check( samples.get( i ), fm );
+				offset = frameEnd;
+			}
+			assertEquals( end, offset );
+			assertEquals( -1, Framing.getFrameEnd( datagram, offset, end ) );
+		}
+	}
+	
+	@Test
+	public void malformed() {
+		FastMessage fm = new FastMessage();
+		// Not marked as FastFormat
+		assertFalse( FastCodec.decode( new byte[] { 'S', ':', 'A' }, 0, 3, fm ) );
+		// Marker only
+		assertFalse( FastCodec.decode( new byte[] { Framing.FAST }, 0, 1, fm ) );
+		// DOUBLE_SHORT header with a short payload
+		int header = Command.Send.bitsum + Key.AnalogValue.bitsum + Value.DOUBLE_SHORT.bitsum;
+		assertFalse( FastCodec.decode( new byte[] { Framing.FAST, (byte) header, 1, 0, 5 }, 0, 5, fm ) );
+		assertTrue( FastCodec.decode( new byte[] { Framing.FAST, (byte) header, 1, 0, 5, 0 }, 0, 6, fm ) );
+		assertEquals( 1.5, fm.getDoubleValue(), 0.0 );
+	}
+	
+	/**
+	 * Compares a decoded message with what FastParser and MessageCursor read
+	 * from the String it was sent as
+	 */
+	private static void check( Sample s, FastMessage fm ) throws ParsingException {
+		String fast = s.msg.substring( 1 );
+		String name = s.toString();
+		assertEquals( name, s.command, fm.getCommand() );
+		assertEquals( name, s.key, fm.getKey() );
+		assertEquals( name, s.val, fm.getValueType() );
+		assertEquals( name, FastParser.isSigned( fast ), fm.isSigned() );
+		assertEquals( name, FastParser.getValue( fast ), fm.getValue() );
+		same( name, FastParser.getDoubleValue( fast ), fm.getDoubleValue() );
+		if ( s.val == Value.BYTE || s.val == Value.SHORT ) {
+			assertEquals( name, FastParser.getIntValue( fast ), fm.getIntValue() );
+		}
+		assertEquals( name, fast.substring( 1 + s.val.length ), fm.getArgs() );
+		
+		MessageCursor bytes = new MessageCursor();
+		MessageCursor string = new MessageCursor();
+		assertTrue( name, bytes.reset( fm ) );
+		assertTrue( name, string.reset( s.msg ) );
+		assertTrue( name, bytes.isFast() );
+		assertEquals( name, string.getCommand(), bytes.getCommand() );
+		assertEquals( name, string.getKey(), bytes.getKey() );
+		assertEquals( name, string.getValue(), bytes.getValue() );
+		same( name, string.getDoubleValue(), bytes.getDoubleValue() );
+		assertArrayEquals( name, string.getArgs(), bytes.getArgs() );
+		assertArrayEquals( name, s.args, bytes.getArgs() );
+		assertEquals( name, string.toStringFormat(), bytes.toStringFormat() );
+	}
+	
+	private static void same( String name, double expected, double actual ) {
+		if ( Double.doubleToLongBits( expected ) != Double.doubleToLongBits( actual ) ) {
+			fail( name + ": " + expected + " != " + actual );
+		}
+	}
+	
+	private static byte[] toBytes( char[] chars, int end ) {
+		byte[] bytes = new byte[end];
+		for ( int i = 0; i < end; i++ ) {
+			if ( chars[i] > 0xFF ) {
+				fail( "Character " + (int) chars[i] + " at " + i + " does not fit in a byte" );
+			}
+			bytes[i] = (byte) chars[i];
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,200 @@
+package org.nashua.tt151.bench;
+
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.nashua.tt151.util.BitwiseTools;
+import org.nashua.tt151.util.MathTools;
+
+/**
+ * Checks that the MathTools and BitwiseTools helpers give the same results
+ * as their frozen copies in LegacyTools, including which exception they
+ * throw. Values FastFormat can send are checked exhaustively, the rest with
+ * a fixed random sample. fracDigits is not compared where the legacy loop
+ * never returned.
+ */
+public class ToolsEquivalenceTest {
+	private static final long SEED = 151;
+	private static final int SAMPLES = 1000000;
+	
+	/**
+	 * Every DOUBLE_BYTE value, positive and negative, at up to 3 places
+	 */
+	@Test
+	public void doubleByteValues() {
+		for ( int k = -255999; k <= 255999; k++ ) {
+			checkDouble( k / 1000.0 );
+		}
+	}
+	
+	/**
+	 * Every DOUBLE_SHORT value at up to 2 places
+	 */
+	@Test
+	public void doubleShortValues() {
+		for ( int k = 0; k <= 6553599; k++ ) {
+			checkDouble( k / 100.0 );
+		}
+	}
+	
+	/**
+	 * DOUBLE_SHORT values at 3 to 5 places, where most legacy fracDigits
+	 * calls never returned
+	 */
+	@Test
+	public void doubleShortSample() {
+		Random random = new Random( SEED );
+		for ( int n = 0; n < SAMPLES; n++ ) {
+			int places = 3 + random.nextInt( 3 );
+			double scale = MathTools.pow( 10, places );
+			long k = (long) ( random.nextDouble() * 65536 * scale );
+			checkDouble( k / scale );
+		}
+	}
+	
+	@Test
+	public void randomDoubles() {
+		Random random = new Random( SEED );
+		for ( int n = 0; n < SAMPLES; n++ ) {
+			checkDouble( random.nextDouble() * MathTools.pow( 10, random.nextInt( 20 ) - 8 ) );
+			checkDouble( Double.longBitsToDouble( random.nextLong() ) );
+		}
+	}
+	
+	@Test
+	public void specialDoubles() {
+		double[] special = {
+			0.0, -0.0, 1.0, -1.0, 0.001, 0.00099999, 9999999.999, 1e7, 1e7 - 1e-9, 0.1 + 0.2,
+			Double.MIN_VALUE, Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN,
+			Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE + 0.5, 65535.65535, 255.255
+		};
+		for ( int n = 0; n < special.length; n++ ) {
+			checkDouble( special[n] );
+		}
+	}
+	
+	@Test
+	public void shorts() {
+		for ( int sh = -70000; sh <= 140000; sh++ ) {
+			checkShort( sh );
+		}
+		Random random = new Random( SEED );
+		for ( int n = 0; n < SAMPLES; n++ ) {
+			checkShort( random.nextInt() );
+		}
+	}
+	
+	@Test
+	public void makeShort() {
+		for ( int one = -16; one < 272; one++ ) {
+			for ( int two = -16; two < 272; two++ ) {
+				checkMakeShort( one, two );
+			}
+		}
+		Random random = new Random( SEED );
+		for ( int n = 0; n < SAMPLES; n++ ) {
+			checkMakeShort( random.nextInt(), random.nextInt() );
+		}
+	}
+	
+	@Test
+	public void negatebits() {
+		Random random = new Random( SEED );
+		for ( int n = 0; n < 2000; n++ ) {
+			int num = n < 8 ? new int[] { 0, -1, 1, Integer.MAX_VALUE, Integer.MIN_VALUE, 255, 65535, 0x55555555 }[n] : random.nextInt();
+			for ( int bit = -3; bit <= 40; bit++ ) {
+				same( "negatebit(" + num + ", " + bit + ")", LegacyTools.negatebit( num, bit ), BitwiseTools.negatebit( num, bit ) );
+			}
+			// The legacy loop only ends if it reaches bitend + 1
+			for ( int start = -2; start <= 34; start++ ) {
+				for ( int end = start - 1; end <= 34; end++ ) {
+					int old = LegacyTools.negatebits( num, start, end );
+					int now = BitwiseTools.negatebits( num, start, end );
+					if ( old != now ) {
+						fail( "negatebits(" + num + ", " + start + ", " + end + "): " + old + " != " + now );
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void pow() {
+		double[] bases = { 2.0, 10.0, 3.0, 0.5, -2.0, -10.0, 1.1, 0.0 };
+		for ( int b = 0; b < bases.length; b++ ) {
+			for ( int exp = -80; exp <= 80; exp++ ) {
+				double old = LegacyTools.pow( bases[b], exp );
+				double now = MathTools.pow( bases[b], exp );
+				if ( Double.doubleToLongBits( old ) != Double.doubleToLongBits( now ) ) {
+					fail( "pow(" + bases[b] + ", " + exp + "): " + old + " != " + now );
+				}
+			}
+		}
+	}
+	
+	private static void checkDouble( double d ) {
+		Object old, now;
+		try {
+			old = LegacyTools.numOfPlaces( d );
+		} catch ( RuntimeException e ) {
+			old = e.getClass();
+		}
+		try {
+			now = MathTools.numOfPlaces( d );
+		} catch ( RuntimeException e ) {
+			now = e.getClass();
+		}
+		same( "numOfPlaces", d, old, now );
+		
+		try {
+			old = LegacyTools.fpart( d );
+		} catch ( RuntimeException e ) {
+			old = e.getClass();
+		}
+		try {
+			now = MathTools.fpart( d );
+		} catch ( RuntimeException e ) {
+			now = e.getClass();
+		}
+		same( "fpart", d, old, now );
+		
+		if ( LegacyTools.ipart( d ) != MathTools.ipart( d ) ) {
+			fail( "ipart(" + d + "): " + LegacyTools.ipart( d ) + " != " + MathTools.ipart( d ) );
+		}
+		
+		int digits = LegacyTools.fracDigits( d );
+		if ( digits != LegacyTools.HUNG && digits != BitwiseTools.fracDigits( d ) ) {
+			fail( "fracDigits(" + d + "): " + digits + " != " + BitwiseTools.fracDigits( d ) );
+		}
+	}
+	
+	private static void checkShort( int sh ) {
+		String old = LegacyTools.toCharShort( sh );
+		String now = BitwiseTools.toCharShort( sh );
+		if ( !old.equals( now ) ) {
+			fail( "toCharShort(" + sh + "): " + (int) old.charAt( 0 ) + "," + (int) old.charAt( 1 ) + " != " + (int) now.charAt( 0 ) + "," + (int) now.charAt( 1 ) );
+		}
+	}
+	
+	private static void checkMakeShort( int one, int two ) {
+		int old = LegacyTools.makeShort( one, two );
+		int now = BitwiseTools.makeShort( one, two );
+		if ( old != now ) {
+			fail( "makeShort(" + one + ", " + two + "): " + old + " != " + now );
+		}
+	}
+	
+	private static void same( String helper, double d, Object old, Object now ) {
+		if ( !old.equals( now ) ) {
+			fail( helper + "(" + d + "): " + old + " != " + now );
+		}
+	}
+	
+	private static void same( String call, int old, int now ) {
+		if ( old != now ) {
+			fail( call + ": " + old + " != " + now );
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.nashua.tt151;
+
+import java.net.Socket;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+
+/**
+ * Channels the robot has registered on one connection. The robot sends a
+ * channel's name, slot and type along with the ID it picked for it, and
+ * later updates for that channel carry only the ID and value. IDs are only
+ * valid for one connection, so every client has a table of its own (see
+ * ServerConnection.getChannelTable) that goes away when it disconnects.
+ */
+public class ChannelTable {
+	/**
+	 * Finds the table of the client a message came from
+	 */
+	public static interface Lookup {
+		/**
+		 * @return The client's table, or null if it is not connected (any more)
+		 */
+		public ChannelTable get( Socket client );
+	}
+	
+	// The robot numbers channels from 1, this only guards against garbage IDs
+	public static final int MAX_ID = 1024;
+	
+	// Device names registered on the connection
+	private final NameCache nameCache = new NameCache();
+	
+	private Key[] keys = new Key[32];
+	private int[] slots = new int[32];
+	private String[] names = new String[32];
+	private char[] types = new char[32];
+	
+	public synchronized void put( int id, Key key, int slot, String name, char type ) {
+		if ( id < 0 || id >= MAX_ID ) {
+			return;
+		}
+		if ( id >= keys.length ) {
+			grow( id + 1 );
+		}
+		keys[id] = key;
+		slots[id] = slot;
+		names[id] = name;
+		types[id] = type;
+	}
+	
+	/**
+	 * @return The key the channel was registered with, or null if the ID is unknown
+	 */
+	public synchronized Key getKey( int id ) {
+		return id >= 0 && id < keys.length ? keys[id] : null;
+	}
+	
+	public synchronized int getSlot( int id ) {
+		return slots[id];
+	}
+	
+	public synchronized String getName( int id ) {
+		return names[id];
+	}
+	
+	public synchronized char getType( int id ) {
+		return types[id];
+	}
+	
+	/**
+	 * @return The cache of the device names registered on the connection
+	 */
+	public NameCache getNames() {
+		return nameCache;
+	}
+	
+	public synchronized void clear() {
+		for ( int i = 0; i < keys.length; i++ ) {
+			keys[i] = null;
+			names[i] = null;
+		}
+		nameCache.clear();
+	}
+	
+	private void grow( int min ) {
+		int size = Math.max( min, keys.length * 2 );
+		Key[] k = new Key[size];
+		int[] s = new int[size];
+		String[] n = new String[size];
+		char[] t = new char[size];
+		System.arraycopy( keys, 0, k, 0, keys.length );
+		System.arraycopy( slots, 0, s, 0, slots.length );
+		System.arraycopy( names, 0, n, 0, names.length );
+		System.arraycopy( types, 0, t, 0, types.length );
+		keys = k;
+		slots = s;
+		names = n;
+		types = t;
+	}
+}
@@ -0,0 +1,66 @@
+package org.nashua.tt151;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The clients of a server, each registered once under its key. Lookups go
+ * through a concurrent map and iteration through a copy-on-write list, so the
+ * selector thread can walk every client on each pass while other threads
+ * send to, add or remove clients, without locking and without
+ * ConcurrentModificationException. Clients come and go rarely compared to how
+ * often they are walked, which is what copy-on-write suits.
+ */
+public class ClientRegistry<K, C> implements Iterable<C> {
+	private final ConcurrentHashMap<K, C> byKey = new ConcurrentHashMap<K, C>();
+	private final CopyOnWriteArrayList<C> all = new CopyOnWriteArrayList<C>();
+	
+	/**
+	 * @return False if a client is already registered under the key
+	 */
+	public boolean add( K key, C client ) {
+		if ( byKey.putIfAbsent( key, client ) != null ) {
+			return false;
+		}
+		all.add( client );
+		return true;
+	}
+	
+	/**
+	 * Removes a client. If several threads remove the same client only one
+	 * of them gets it, so only that one closes it.
+	 * 
+	 * @return The client, or null if it is not registered (any more)
+	 */
+	public C remove( K key ) {
+		C client = byKey.remove( key );
+		if ( client != null ) {
+			all.remove( client );
+		}
+		return client;
+	}
+	
+	/**
+	 * @return The client registered under the key, or null
+	 */
+	public C get( K key ) {
+		return byKey.get( key );
+	}
+	
+	/**
+	 * @return An iterator over the clients registered when it was made, which
+	 *         later changes do not affect
+	 */
+	public Iterator<C> iterator() {
+		return all.iterator();
+	}
+	
+	public int size() {
+		return all.size();
+	}
+	
+	public boolean isEmpty() {
+		return all.isEmpty();
+	}
+}
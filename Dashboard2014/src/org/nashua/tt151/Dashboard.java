@@ -21,10 +21,15 @@ import org.nashua.tt151.device.PWMDevice.PWMType;
 import org.nashua.tt151.device.RelayDevice;
 import org.nashua.tt151.device.RelayDevice.Direction;
 import org.nashua.tt151.device.RelayDevice.Value;
+import org.nashua.tt151.libraries.parsers.FastMessage;
+import org.nashua.tt151.libraries.parsers.Handshake;
+import org.nashua.tt151.libraries.parsers.HeartbeatMonitor;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
 import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
 import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
 import org.nashua.tt151.libraries.parsers.ProtocolParsing.StringParser;
 import org.nashua.tt151.libraries.parsers.ValueParser;
+import org.nashua.tt151.module.AnalogModule;
 import org.nashua.tt151.module.BandwidthModule;
 import org.nashua.tt151.module.CameraModule;
 import org.nashua.tt151.module.ConnectionModule;
@@ -32,6 +37,7 @@ import org.nashua.tt151.module.ConnectionModule.State;
 import org.nashua.tt151.module.DeviceModule;
 import org.nashua.tt151.module.InstructionsModule;
 import org.nashua.tt151.module.LEDModule;
+import org.nashua.tt151.module.SidecarModule;
 import org.nashua.tt151.ui.SleekFrame;
 import org.nashua.tt151.ui.Splash;
 import org.nashua.tt151.util.FileIOHelper;
@@ -45,7 +51,22 @@ public class Dashboard {
 	public static InstructionsModule instructions = new InstructionsModule();
 	public static BandwidthModule bandwidth = new BandwidthModule();
 	private int port = 1735;
-	private ServerConnection server;
+	// Read-only viewers (pit, coach, scouting) get the robot's messages on this port
+	private int viewerPort = 1736;
+	private volatile ServerConnection server;
+	// The client shown in the connection module, null when disconnected
+	private volatile Socket robot;
+	// Only the server's reader thread touches the cursor
+	private final MessageCursor cursor = new MessageCursor();
+	// Channel IDs are registered per connection, so every client has a table of its own
+	private final ChannelTable.Lookup channels = new ChannelTable.Lookup() {
+		public ChannelTable get( Socket client ) {
+			ServerConnection sc = server;
+			return sc == null ? null : sc.getChannelTable( client );
+		}
+	};
+	// Handlers for incoming messages, modules can register their own
+	public static final HandlerRegistry handlers = new HandlerRegistry();
 	
 	public static void main( String[] args ) {
 		new Dashboard();
@@ -56,6 +77,7 @@ public class Dashboard {
 		Logger.logLine( Calendar.getInstance().getTime().toString() );
 		Logger.logLine( "Camera IP Address: " + CameraModule.CAM_IP );
 		Logger.logLine( "Port: " + port );
+		Logger.logLine( "Viewer Port: " + viewerPort );
 		
 		Splash.display(); // Display splash screen
 		
@@ -101,12 +123,23 @@ public class Dashboard {
 			}
 		}, 1, 1 );
 		
+		new Timer().schedule( new TimerTask() {
+			public void run() {
+				updateStats();
+			}
+		}, 500, 500 );
+		
+		registerHandlers();
+		
 		// Create server connection
 		try {
-			server = new ServerConnection( port, new ConnectionListener() {
+			server = new ServerConnection( port, viewerPort, new ConnectionListener() {
 				public void onConnect( Socket s ) {
 					Logger.logLine( "Connected to: " + s + " at " + Calendar.getInstance().getTime().toString() );
+					robot = s;
+					clearRetained();
 					state.setState( State.CONNECTED );
+					state.setMode( Handshake.describe( 0 ) );
 					devices.getSidecar().clearAllPWMDevices();
 					devices.getSidecar().clearAllRelayDevices();
 					devices.getSidecar().clearAllDIODevices();
@@ -114,44 +147,179 @@ public class Dashboard {
 				}
 				
 				public void onDataReceived( Socket s, String msg ) {
-					System.out.println( msg );
 					if ( msg.startsWith( "LOG:" ) ) {
+						broadcast( msg, -1 );
 						Logger.logLine( "[ROBOT] " + msg.substring( msg.indexOf( ':' ) + 1 ) );
-					} else if ( StringParser.isSend( msg ) ) {
-						Key key = StringParser.getKey( msg );
-						String val = StringParser.getValue( msg );
-						String[] args = StringParser.getArgs( msg );
-						if ( key.equals( Key.AnalogValue ) ) {
-							devices.getAnalogModule().registerAnalogDevice( new AnalogDevice( ValueParser.ParseInt( args[1] ), args[0], ValueParser.ParseDouble( val ), AnalogType.getFromShorthand( args[2].charAt( 0 ) ) ) );
-						} else if ( key.equals( Key.PWMValue ) ) {
-							devices.getSidecar().registerPWMDevice( new PWMDevice( ValueParser.ParseInt( args[1] ), args[0], ValueParser.ParseDouble( val ), PWMType.getFromShorthand( args[2].charAt( 0 ) ) ) );
-						} else if ( key.equals( Key.RelayValue ) ) {
-							devices.getSidecar().registerRelayDevice( new RelayDevice( ValueParser.ParseInt( args[1] ), args[0], Direction.getFromShorthand( args[2].charAt( 0 ) ), Value.getFromShorthand( val.charAt( 0 ) ) ) );
-						} else if ( key.equals( Key.DigitalIO ) ) {
-							devices.getSidecar().registerDIODevice( new DigitalIODevice( ValueParser.ParseInt( args[1] ), args[0], ValueParser.ParseDouble( val ), DIGIOType.getFromShorthand( args[2].charAt( 0 ) ) ) );
-						} else if ( key.equals( Key.Status ) ) {
-							state.setState( State.getFromShorthand( val.charAt( 0 ) ) );
-						}
-					} else if ( StringParser.isQuery( msg ) ) {
-						Key key = StringParser.getKey( msg );
-						if ( key.equals( Key.TargetHot ) ) {
-							server.send( StringParser.createMessage( Command.Reply, Key.TargetHot, camera.isHot() ? "1" : "0", new String[] {} ) );
-						}
+					} else if ( cursor.reset( msg ) ) {
+						received( s );
+					}
+				}
+				
+				public void onFastReceived( Socket s, FastMessage msg ) {
+					if ( cursor.reset( msg ) ) {
+						received( s );
 					}
 				}
 				
 				public void onDisconnect( Socket s ) {
 					Logger.logLine( "Disconnected from: " + s + " at " + Calendar.getInstance().getTime().toString() );
+					if ( s != robot ) {
+						// A stale connection of the robot timing out, the live one is unaffected
+						return;
+					}
+					robot = null;
+					clearRetained();
 					state.setState( State.DISCONNECTED );
+					state.setMode( null );
+					state.setStats( null );
 					devices.getSidecar().clearAllPWMDevices();
 					devices.getSidecar().clearAllRelayDevices();
 					devices.getSidecar().clearAllDIODevices();
 					devices.getAnalogModule().clearAllAnalogDevices();
 				}
+				
+				public void onNegotiated( Socket s, int capabilities ) {
+					Logger.logLine( "Protocol with " + s + ": " + Handshake.describe( capabilities ) );
+					state.setMode( Handshake.describe( capabilities ) );
+				}
+				
+				public void onViewerConnect( Socket s ) {
+					Logger.logLine( "Viewer connected: " + s + " at " + Calendar.getInstance().getTime().toString() );
+				}
 			} );
 		} catch ( IOException e ) {
-			Logger.logLine( "Port " + port + " is already in use. Dashboard shutting down." );
+			Logger.logLine( "Port " + port + " or " + viewerPort + " is already in use. Dashboard shutting down." );
 			frame.dispatchEvent( new WindowEvent( frame, WindowEvent.WINDOW_CLOSING ) );
 		}
 	}
+	
+	/**
+	 * Shows the round trip times to the robot, the loss and late counts of its
+	 * telemetry datagrams if it sends any, and how many viewers are connected
+	 */
+	private void updateStats() {
+		if ( server == null ) {
+			return;
+		}
+		String stats = "";
+		Socket s = robot;
+		HeartbeatMonitor heartbeat = s == null ? null : server.getHeartbeat( s );
+		if ( heartbeat != null ) {
+			stats = heartbeat.toString();
+		}
+		if ( s != null && ( server.getCapabilities( s ) & Handshake.UDP ) != 0 ) {
+			DatagramStream stream = server.getDatagramStream( s );
+			if ( stream != null ) {
+				stats += ( stats.isEmpty() ? "" : "  " ) + stream.toString();
+			}
+		}
+		int viewers = server.getViewers().size();
+		if ( viewers > 0 ) {
+			stats += ( stats.isEmpty() ? "" : "  " ) + "Viewers: " + viewers;
+		}
+		state.setStats( stats );
+	}
+	
+	/**
+	 * Passes the message at the cursor on to the viewers and its handler
+	 */
+	private void received( Socket s ) {
+		// Viewers that connect later need the channel IDs the robot registers
+		int channel = -1;
+		if ( s == robot && cursor.getArgCount() > 3 ) {
+			channel = ValueParser.ParseInt( cursor.getMessage(), cursor.getArgStart( 3 ), cursor.getArgEnd( 3 ) );
+		}
+		broadcast( cursor.toStringFormat(), channel );
+		if ( !handlers.dispatch( s, cursor ) && !cursor.isFast() ) {
+			Logger.logLine( "Unhandled: " + cursor.getMessage() );
+		}
+	}
+	
+	/**
+	 * Passes a message from the robot on to the viewers
+	 * 
+	 * @param channel ID of the channel the message registers, -1 if viewers
+	 *            that connect later do not need it
+	 */
+	private void broadcast( String msg, int channel ) {
+		ServerConnection sc = server;
+		if ( sc != null && msg != null ) {
+			sc.broadcast( msg, channel );
+		}
+	}
+	
+	/**
+	 * Forgets the messages kept for new viewers, they belong to the last robot connection
+	 */
+	private void clearRetained() {
+		if ( server != null ) {
+			server.clearRetained();
+		}
+	}
+	
+	private void registerHandlers() {
+		handlers.register( Command.Send, Key.AnalogValue, new DeviceHandler<AnalogType>( new DeviceDecoder<AnalogType>( Key.AnalogValue, AnalogType.values(), AnalogType.UNKNOWN, AnalogModule.MAX_ANALOG_SLOTS, true ), channels ) {
+			protected void update( DeviceRecord<AnalogType> r ) {
+				AnalogDevice d = devices.getAnalogModule().getAnalogDevice( r.getSlot() );
+				if ( d != null && d.getType() == r.getType() && d.getName().equals( r.getName() ) ) {
+					d.setValue( r.getValue() );
+				} else {
+					devices.getAnalogModule().registerAnalogDevice( new AnalogDevice( r.getSlot(), r.getName(), r.getValue(), r.getType() ) );
+				}
+			}
+		} );
+		handlers.register( Command.Send, Key.PWMValue, new DeviceHandler<PWMType>( new DeviceDecoder<PWMType>( Key.PWMValue, PWMType.values(), PWMType.UNKNOWN, SidecarModule.MAX_PWM_SLOTS, true ), channels ) {
+			protected void update( DeviceRecord<PWMType> r ) {
+				PWMDevice d = devices.getSidecar().getPWMDevice( r.getSlot() );
+				if ( d != null && d.getType() == r.getType() && d.getName().equals( r.getName() ) ) {
+					d.setValue( r.getValue() );
+				} else {
+					devices.getSidecar().registerPWMDevice( new PWMDevice( r.getSlot(), r.getName(), r.getValue(), r.getType() ) );
+				}
+			}
+		} );
+		handlers.register( Command.Send, Key.RelayValue, new DeviceHandler<Direction>( new DeviceDecoder<Direction>( Key.RelayValue, Direction.values(), Direction.BOTH, SidecarModule.MAX_RELAY_SLOTS, false ), channels ) {
+			protected void update( DeviceRecord<Direction> r ) {
+				RelayDevice d = devices.getSidecar().getRelayDevice( r.getSlot() );
+				Value value = Value.getFromShorthand( r.getValueChar() );
+				if ( d != null && d.getDirection() == r.getType() && d.getName().equals( r.getName() ) ) {
+					d.setValue( value );
+				} else {
+					devices.getSidecar().registerRelayDevice( new RelayDevice( r.getSlot(), r.getName(), r.getType(), value ) );
+				}
+			}
+		} );
+		handlers.register( Command.Send, Key.DigitalIO, new DeviceHandler<DIGIOType>( new DeviceDecoder<DIGIOType>( Key.DigitalIO, DIGIOType.values(), DIGIOType.UNKNOWN, SidecarModule.MAX_DIO_SLOTS, true ), channels ) {
+			protected void update( DeviceRecord<DIGIOType> r ) {
+				DigitalIODevice d = devices.getSidecar().getDIODevice( r.getSlot() );
+				if ( d != null && d.getType() == r.getType() && d.getName().equals( r.getName() ) ) {
+					d.setValue( r.getValue() );
+				} else {
+					devices.getSidecar().registerDIODevice( new DigitalIODevice( r.getSlot(), r.getName(), r.getValue(), r.getType() ) );
+				}
+			}
+		} );
+		handlers.register( Command.Send, Key.Status, new MessageHandler() {
+			public void handle( Socket client, MessageCursor msg ) {
+				state.setState( State.getFromShorthand( msg.getValueChar( 0 ) ) );
+			}
+		} );
+		handlers.register( Command.Query, Key.TargetHot, new MessageHandler() {
+			public void handle( Socket client, MessageCursor msg ) {
+				reply( client, msg, camera.isHot() ? "1" : "0" );
+			}
+		} );
+	}
+	
+	/**
+	 * Answers a query to the client that sent it, repeating its sequence
+	 * number if it has one
+	 */
+	private void reply( Socket client, MessageCursor query, String value ) {
+		String[] args = new String[] {};
+		if ( query.getArgCount() > 0 ) {
+			args = new String[] { query.getArg( 0 ) };
+		}
+		server.send( client, StringParser.createMessage( Command.Reply, query.getKey(), value, args ) );
+	}
 }
@@ -0,0 +1,58 @@
+package org.nashua.tt151;
+
+import org.nashua.tt151.libraries.parsers.Framing;
+
+/**
+ * Tracks the sequence numbers of the telemetry datagrams from one client.
+ * Datagrams can be lost or arrive out of order; one that is not newer than
+ * the newest so far is late and thrown away, so an old value never replaces
+ * a newer one.
+ */
+public class DatagramStream {
+	private boolean started;
+	private int last;
+	private long receivedCount;
+	private long lostCount;
+	private long lateCount;
+	
+	/**
+	 * @param sequence Sequence number of a datagram just read
+	 * @return False if the datagram is late and should be thrown away
+	 */
+	public synchronized boolean accept( int sequence ) {
+		if ( started ) {
+			int distance = Framing.getSequenceDistance( last, sequence );
+			if ( distance <= 0 ) {
+				lateCount++;
+				return false;
+			}
+			lostCount += distance - 1;
+		}
+		started = true;
+		last = sequence;
+		receivedCount++;
+		return true;
+	}
+	
+	public synchronized long getReceivedCount() {
+		return receivedCount;
+	}
+	
+	/**
+	 * @return Number of datagrams skipped over, counting ones that later arrived late
+	 */
+	public synchronized long getLostCount() {
+		return lostCount;
+	}
+	
+	/**
+	 * @return Number of datagrams thrown away because a newer one was already read
+	 */
+	public synchronized long getLateCount() {
+		return lateCount;
+	}
+	
+	public String toString() {
+		return "UDP rx=" + getReceivedCount() + " lost=" + getLostCount() + " late=" + getLateCount();
+	}
+}
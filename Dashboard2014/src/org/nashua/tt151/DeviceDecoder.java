@@ -0,0 +1,147 @@
+package org.nashua.tt151;
+
+import org.nashua.tt151.device.DeviceType;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ValueParser;
+
+/**
+ * Decodes the device messages for one key. Device messages carry the name,
+ * slot and type shorthand of the device as args, optionally followed by a
+ * channel ID to register, or only a channel ID that was registered earlier.
+ * Both StringFormat and FastFormat messages are understood.
+ * The args are parsed straight from the message into a reused DeviceRecord,
+ * so nothing is created per message apart from a name the first time it is
+ * seen. Problems are returned as error codes rather than thrown.
+ */
+public class DeviceDecoder<T extends DeviceType> {
+	public static final int OK = 0;
+	public static final int MISSING_ARGS = 1;
+	public static final int BAD_SLOT = 2;
+	public static final int BAD_VALUE = 3;
+	public static final int BAD_ID = 4;
+	public static final int UNKNOWN_ID = 5;
+	public static final int ERROR_COUNT = 6;
+	
+	private static final String[] ERROR_NAMES = { "OK", "MISSING_ARGS", "BAD_SLOT", "BAD_VALUE", "BAD_ID", "UNKNOWN_ID" };
+	
+	private final Key key;
+	private final T[] types = newTypeTable();
+	private final T unknown;
+	private final int slots;
+	private final boolean numeric;
+	private final DeviceRecord<T> record = new DeviceRecord<T>();
+	
+	/**
+	 * @param key Key of the messages to decode
+	 * @param values Every type the devices can have
+	 * @param unknown Type to use for an unknown shorthand
+	 * @param slots Number of slots, valid slots are 1 to slots
+	 * @param numeric True if the value is a number, false if it is a shorthand character
+	 */
+	public DeviceDecoder( Key key, T[] values, T unknown, int slots, boolean numeric ) {
+		this.key = key;
+		this.unknown = unknown;
+		this.slots = slots;
+		this.numeric = numeric;
+		for ( int i = 0; i < values.length; i++ ) {
+			char sh = values[i].getShorthand();
+			if ( sh < types.length ) {
+				types[sh] = values[i];
+			}
+		}
+	}
+	
+	@SuppressWarnings( "unchecked" )
+	private T[] newTypeTable() {
+		return (T[]) new DeviceType[128];
+	}
+	
+	/**
+	 * Decodes a message into the record
+	 * 
+	 * @param msg Cursor over a message with this decoder's key
+	 * @param channels Table of the connection the message came in on, to
+	 *            look up and register channel IDs and take device names from
+	 * @return OK, or the error code describing what was wrong with the message
+	 */
+	public int decode( MessageCursor msg, ChannelTable channels ) {
+		String s = msg.getMessage();
+		int argCount = msg.getArgCount();
+		if ( !msg.hasValue() || argCount == 0 || argCount == 2 ) {
+			return MISSING_ARGS;
+		}
+		
+		if ( numeric ) {
+			record.value = msg.getDoubleValue();
+			record.valueChar = 0;
+			if ( record.value != record.value ) {
+				return BAD_VALUE;
+			}
+		} else {
+			record.value = Double.NaN;
+			record.valueChar = msg.getValueChar( 0 );
+		}
+		
+		if ( argCount == 1 ) {
+			// Update for a registered channel, the only arg is its ID
+			int id = ValueParser.ParseInt( s, msg.getArgStart( 0 ), msg.getArgEnd( 0 ) );
+			if ( id < 0 ) {
+				return BAD_ID;
+			}
+			if ( channels.getKey( id ) != key ) {
+				return UNKNOWN_ID;
+			}
+			record.id = id;
+			record.slot = channels.getSlot( id );
+			record.name = channels.getName( id );
+			record.type = getType( channels.getType( id ) );
+			return OK;
+		}
+		
+		// Full message: name, slot, type and optionally the ID to register
+		int slot = ValueParser.ParseInt( s, msg.getArgStart( 1 ), msg.getArgEnd( 1 ) );
+		if ( slot < 1 || slot > slots ) {
+			return BAD_SLOT;
+		}
+		int id = -1;
+		if ( argCount > 3 ) {
+			id = ValueParser.ParseInt( s, msg.getArgStart( 3 ), msg.getArgEnd( 3 ) );
+			if ( id < 0 ) {
+				return BAD_ID;
+			}
+		}
+		char type = msg.getArgChar( 2, 0 );
+		record.id = id;
+		record.slot = slot;
+		record.name = channels.getNames().get( s, msg.getArgStart( 0 ), msg.getArgEnd( 0 ) );
+		record.type = getType( type );
+		if ( id >= 0 ) {
+			channels.put( id, key, slot, record.name, type );
+		}
+		return OK;
+	}
+	
+	private T getType( char sh ) {
+		T t = sh < types.length ? types[sh] : null;
+		return t == null ? unknown : t;
+	}
+	
+	/**
+	 * @return The record filled by the last successful decode
+	 */
+	public DeviceRecord<T> getRecord() {
+		return record;
+	}
+	
+	public Key getKey() {
+		return key;
+	}
+	
+	/**
+	 * @return A readable name for an error code
+	 */
+	public static String getErrorName( int error ) {
+		return error >= 0 && error < ERROR_NAMES.length ? ERROR_NAMES[error] : "UNKNOWN";
+	}
+}
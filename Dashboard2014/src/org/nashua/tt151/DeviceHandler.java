@@ -0,0 +1,62 @@
+package org.nashua.tt151;
+
+import java.net.Socket;
+
+import org.nashua.tt151.device.DeviceType;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+
+/**
+ * Base handler for device updates. Messages are decoded by a DeviceDecoder
+ * and only messages that decode cleanly are passed on, the others are
+ * counted by error code.
+ */
+public abstract class DeviceHandler<T extends DeviceType> implements MessageHandler {
+	private final DeviceDecoder<T> decoder;
+	private final ChannelTable.Lookup channels;
+	private final long[] errorCounts = new long[DeviceDecoder.ERROR_COUNT];
+	
+	/**
+	 * @param channels Finds the channel table of the client a message came from
+	 */
+	public DeviceHandler( DeviceDecoder<T> decoder, ChannelTable.Lookup channels ) {
+		this.decoder = decoder;
+		this.channels = channels;
+	}
+	
+	public void handle( Socket client, MessageCursor msg ) {
+		ChannelTable table = channels.get( client );
+		if ( table == null ) {
+			// Disconnected before its message was handled
+			return;
+		}
+		int error = decoder.decode( msg, table );
+		if ( error != DeviceDecoder.OK ) {
+			synchronized ( errorCounts ) {
+				errorCounts[error]++;
+			}
+			return;
+		}
+		update( decoder.getRecord() );
+	}
+	
+	/**
+	 * Shows the new value of a device
+	 * 
+	 * @param record The decoded message, only valid until this method returns
+	 */
+	protected abstract void update( DeviceRecord<T> record );
+	
+	public DeviceDecoder<T> getDecoder() {
+		return decoder;
+	}
+	
+	/**
+	 * @param error One of the DeviceDecoder error codes
+	 * @return Number of messages that failed to decode with that error
+	 */
+	public long getErrorCount( int error ) {
+		synchronized ( errorCounts ) {
+			return error >= 0 && error < errorCounts.length ? errorCounts[error] : 0;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package org.nashua.tt151;
+
+import org.nashua.tt151.device.DeviceType;
+
+/**
+ * The decoded form of a device message. A DeviceDecoder fills the same record
+ * for every message it decodes, so a record is only valid until the next
+ * message is decoded.
+ */
+public class DeviceRecord<T extends DeviceType> {
+	int id;
+	int slot;
+	String name;
+	T type;
+	double value;
+	char valueChar;
+	
+	/**
+	 * @return The channel ID, or -1 if the message did not carry one
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public T getType() {
+		return type;
+	}
+	
+	/**
+	 * @return The value as a number, or Double.NaN for devices whose value is not a number
+	 */
+	public double getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return The first character of the value, or 0 for devices whose value is a number
+	 */
+	public char getValueChar() {
+		return valueChar;
+	}
+}
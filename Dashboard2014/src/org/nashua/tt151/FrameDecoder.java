@@ -0,0 +1,189 @@
+package org.nashua.tt151;
+
+import java.nio.ByteBuffer;
+
+import org.nashua.tt151.libraries.parsers.Framing;
+
+/**
+ * Splits the bytes read from one client into messages. Frames that arrive in
+ * pieces are kept until the rest of them is read, so only complete messages
+ * are passed on. Both single message frames and batch frames (see Framing) are
+ * understood. One buffer is reused for the life of the client and only grows
+ * if a frame does not fit in it. Messages are passed on as the bytes they
+ * arrived as, so a FastFormat message can be decoded by FastBufferCodec
+ * without building a String. One byte is one ISO-8859-1 character.
+ */
+public class FrameDecoder {
+	public static interface FrameListener {
+		/**
+		 * Called for every complete message
+		 * 
+		 * @param msg The message, from the buffer's position to its limit. The
+		 *            buffer and its contents are only valid until this method
+		 *            returns.
+		 */
+		public void onMessage( ByteBuffer msg );
+	}
+	
+	private static final int INITIAL_SIZE = 1024;
+	
+	private final FrameListener listener;
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	// View of buffer passed to the listener, replaced when buffer grows
+	private ByteBuffer view = ByteBuffer.wrap( buffer );
+	// Unread bytes are buffer[start] to buffer[end - 1]
+	private int start;
+	private int end;
+	
+	private long frameCount;
+	private long messageCount;
+	private long charCount;
+	
+	public FrameDecoder( FrameListener listener ) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Takes every remaining byte of a buffer and passes on every message
+	 * completed by them
+	 *
+	 * @param bytes Bytes read from the client, left with none remaining
+	 */
+	public void read( ByteBuffer bytes ) {
+		while ( bytes.hasRemaining() ) {
+			if ( end == buffer.length ) {
+				compact();
+			}
+			int n = Math.min( bytes.remaining(), buffer.length - end );
+			bytes.get( buffer, end, n );
+			end += n;
+			charCount += n;
+			decode();
+		}
+	}
+	
+	/**
+	 * Passes on every complete frame in the buffer and makes room for the
+	 * frame that is still incomplete. A frame is consumed before it is
+	 * passed on, so a listener that throws loses that message but never gets
+	 * it again.
+	 */
+	private void decode() {
+		while ( end > start ) {
+			int frameStart = start;
+			int frameLength;
+			if ( buffer[frameStart] == Framing.BATCH ) {
+				if ( end - frameStart < Framing.BATCH_HEADER_LENGTH ) {
+					break;
+				}
+				frameLength = Framing.BATCH_HEADER_LENGTH + getBatchLength( frameStart );
+				if ( end - frameStart < frameLength ) {
+					break;
+				}
+				start += frameLength;
+				frameCount++;
+				int offset = frameStart + Framing.BATCH_HEADER_LENGTH;
+				int frameEnd;
+				while ( ( frameEnd = Framing.getFrameEnd( buffer, offset, frameStart + frameLength ) ) != -1 ) {
+					int message = offset;
+					offset = frameEnd;
+					deliver( message + 1, frameEnd - message - 1 );
+				}
+			} else {
+				frameLength = 1 + ( buffer[frameStart] & 0xFF );
+				if ( end - frameStart < frameLength ) {
+					break;
+				}
+				start += frameLength;
+				frameCount++;
+				deliver( frameStart + 1, frameLength - 1 );
+			}
+		}
+		if ( start == end ) {
+			start = 0;
+			end = 0;
+		} else {
+			makeRoom();
+		}
+	}
+	
+	private void deliver( int offset, int length ) {
+		messageCount++;
+		view.clear();
+		view.position( offset );
+		view.limit( offset + length );
+		listener.onMessage( view );
+	}
+	
+	private int getBatchLength( int frameStart ) {
+		return Framing.getBatchLength( (char) ( buffer[frameStart + 1] & 0xFF ), (char) ( buffer[frameStart + 2] & 0xFF ) );
+	}
+	
+	/**
+	 * Makes sure the incomplete frame at start can be read in full
+	 */
+	private void makeRoom() {
+		int needed;
+		if ( buffer[start] == Framing.BATCH ) {
+			if ( end - start >= Framing.BATCH_HEADER_LENGTH ) {
+				needed = Framing.BATCH_HEADER_LENGTH + getBatchLength( start );
+			} else {
+				needed = Framing.BATCH_HEADER_LENGTH;
+			}
+		} else {
+			needed = 1 + ( buffer[start] & 0xFF );
+		}
+		if ( needed > buffer.length ) {
+			byte[] grown = new byte[Math.max( needed, buffer.length * 2 )];
+			System.arraycopy( buffer, start, grown, 0, end - start );
+			end -= start;
+			start = 0;
+			buffer = grown;
+			view = ByteBuffer.wrap( buffer );
+		} else if ( start + needed > buffer.length ) {
+			compact();
+		}
+	}
+	
+	private void compact() {
+		System.arraycopy( buffer, start, buffer, 0, end - start );
+		end -= start;
+		start = 0;
+	}
+	
+	/**
+	 * Throws away anything buffered, for when the client reconnects
+	 */
+	public void reset() {
+		start = 0;
+		end = 0;
+	}
+	
+	/**
+	 * @return Number of complete frames read, a batch counts as one frame
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+	
+	/**
+	 * @return Number of messages passed on
+	 */
+	public long getMessageCount() {
+		return messageCount;
+	}
+	
+	/**
+	 * @return Number of characters read
+	 */
+	public long getCharCount() {
+		return charCount;
+	}
+	
+	/**
+	 * @return Number of characters of an incomplete frame waiting for the rest of it
+	 */
+	public int getPendingCount() {
+		return end - start;
+	}
+}
@@ -0,0 +1,187 @@
+package org.nashua.tt151;
+
+import java.net.Socket;
+
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+
+/**
+ * Maps a command and key to the handler for it. Handlers are kept in an
+ * array indexed the same way as a FastFormat header (command in the low 2
+ * bits, key in the next 3), so finding the handler for a message is a single
+ * array lookup. Each registration keeps its own call count and timing.
+ */
+public class HandlerRegistry {
+	/**
+	 * A registered handler and its statistics
+	 */
+	public static class Entry {
+		private final Command command;
+		private final Key key;
+		private final MessageHandler handler;
+		private long count;
+		private long errorCount;
+		private long totalNanos;
+		private long maxNanos;
+		
+		private Entry( Command command, Key key, MessageHandler handler ) {
+			this.command = command;
+			this.key = key;
+			this.handler = handler;
+		}
+		
+		public Command getCommand() {
+			return command;
+		}
+		
+		public Key getKey() {
+			return key;
+		}
+		
+		public MessageHandler getHandler() {
+			return handler;
+		}
+		
+		public synchronized long getCount() {
+			return count;
+		}
+		
+		/**
+		 * @return Number of calls that threw an exception
+		 */
+		public synchronized long getErrorCount() {
+			return errorCount;
+		}
+		
+		/**
+		 * @return Average time spent in the handler in nanoseconds
+		 */
+		public synchronized long getAverageNanos() {
+			return count == 0 ? 0 : totalNanos / count;
+		}
+		
+		/**
+		 * @return Longest time spent in a single call in nanoseconds
+		 */
+		public synchronized long getMaxNanos() {
+			return maxNanos;
+		}
+		
+		public synchronized void resetStats() {
+			count = 0;
+			errorCount = 0;
+			totalNanos = 0;
+			maxNanos = 0;
+		}
+		
+		/**
+		 * @return True if this was the handler's first error
+		 */
+		private synchronized boolean record( long nanos, boolean error ) {
+			count++;
+			totalNanos += nanos;
+			if ( nanos > maxNanos ) {
+				maxNanos = nanos;
+			}
+			if ( error ) {
+				errorCount++;
+				return errorCount == 1;
+			}
+			return false;
+		}
+		
+		public String toString() {
+			return command.shorthand + ":" + key.shorthand + " count=" + getCount() + " errors=" + getErrorCount() + " avg=" + getAverageNanos() / 1000 + "us max=" + getMaxNanos() / 1000 + "us";
+		}
+	}
+	
+	private final Entry[] entries = new Entry[32];
+	private long unhandledCount;
+	
+	private static int indexOf( Command command, Key key ) {
+		return command.bitsum | key.bitsum;
+	}
+	
+	/**
+	 * Registers a handler, replacing any handler already registered for the
+	 * same command and key
+	 * 
+	 * @return The entry that keeps the handler's statistics
+	 */
+	public synchronized Entry register( Command command, Key key, MessageHandler handler ) {
+		Entry e = new Entry( command, key, handler );
+		entries[indexOf( command, key )] = e;
+		return e;
+	}
+	
+	public synchronized void unregister( Command command, Key key ) {
+		entries[indexOf( command, key )] = null;
+	}
+	
+	public synchronized Entry getEntry( Command command, Key key ) {
+		return entries[indexOf( command, key )];
+	}
+	
+	/**
+	 * @return Every registered entry
+	 */
+	public synchronized Entry[] getEntries() {
+		int n = 0;
+		for ( Entry e : entries ) {
+			if ( e != null ) {
+				n++;
+			}
+		}
+		Entry[] all = new Entry[n];
+		n = 0;
+		for ( Entry e : entries ) {
+			if ( e != null ) {
+				all[n++] = e;
+			}
+		}
+		return all;
+	}
+	
+	/**
+	 * @return Number of messages no handler was registered for
+	 */
+	public synchronized long getUnhandledCount() {
+		return unhandledCount;
+	}
+	
+	/**
+	 * Passes a message to the handler registered for its command and key. A
+	 * handler that throws has the error counted in its entry and the message
+	 * is dropped; only the first error of each handler is logged.
+	 * 
+	 * @return True if a handler was found
+	 */
+	public boolean dispatch( Socket client, MessageCursor msg ) {
+		Command command = msg.getCommand();
+		Key key = msg.getKey();
+		Entry e = null;
+		if ( command != null && key != null ) {
+			synchronized ( this ) {
+				e = entries[indexOf( command, key )];
+			}
+		}
+		if ( e == null ) {
+			synchronized ( this ) {
+				unhandledCount++;
+			}
+			return false;
+		}
+		long start = System.nanoTime();
+		try {
+			e.handler.handle( client, msg );
+			e.record( System.nanoTime() - start, false );
+		} catch ( RuntimeException ex ) {
+			if ( e.record( System.nanoTime() - start, true ) ) {
+				Logger.logLine( "Handler for " + command.shorthand + ":" + key.shorthand + " failed: " + ex );
+				ex.printStackTrace();
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,17 @@
+package org.nashua.tt151;
+
+import java.net.Socket;
+
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+
+/**
+ * Handles messages for one command and key. Handlers are registered with
+ * Dashboard.handlers and called from the server's reader thread.
+ */
+public interface MessageHandler {
+	/**
+	 * @param client The client the message came from
+	 * @param msg Cursor over the message, only valid until this method returns
+	 */
+	public void handle( Socket client, MessageCursor msg );
+}
@@ -0,0 +1,53 @@
+package org.nashua.tt151;
+
+/**
+ * Keeps one String for every device name the robot has sent, so a name that
+ * has been seen before can be looked up straight from the message without
+ * creating a substring for it.
+ */
+public class NameCache {
+	// Power of two, at most half of it is filled so lookups stay short
+	private static final int SIZE = 256;
+	
+	private final String[] names = new String[SIZE];
+	private int count;
+	
+	/**
+	 * Finds the name made up of part of a message, adding it the first time
+	 * it is seen
+	 * 
+	 * @param msg The message containing the name
+	 * @param start Index of the first character of the name
+	 * @param end Index after the last character of the name
+	 * @return The cached name
+	 */
+	public synchronized String get( String msg, int start, int end ) {
+		int length = end - start;
+		// Same hash as String.hashCode, which the cached Strings keep
+		int hash = 0;
+		for ( int i = start; i < end; i++ ) {
+			hash = 31 * hash + msg.charAt( i );
+		}
+		int i = hash & ( SIZE - 1 );
+		String name;
+		while ( ( name = names[i] ) != null ) {
+			if ( name.hashCode() == hash && name.length() == length && msg.regionMatches( start, name, 0, length ) ) {
+				return name;
+			}
+			i = ( i + 1 ) & ( SIZE - 1 );
+		}
+		name = msg.substring( start, end );
+		if ( count < SIZE / 2 ) {
+			names[i] = name;
+			count++;
+		}
+		return name;
+	}
+	
+	public synchronized void clear() {
+		for ( int i = 0; i < SIZE; i++ ) {
+			names[i] = null;
+		}
+		count = 0;
+	}
+}
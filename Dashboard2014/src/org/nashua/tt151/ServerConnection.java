@@ -1,136 +1,777 @@
 package org.nashua.tt151;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import org.nashua.tt151.libraries.parsers.FastBufferCodec;
+import org.nashua.tt151.libraries.parsers.FastMessage;
+import org.nashua.tt151.libraries.parsers.Framing;
+import org.nashua.tt151.libraries.parsers.Handshake;
+import org.nashua.tt151.libraries.parsers.Heartbeat;
+import org.nashua.tt151.libraries.parsers.HeartbeatMonitor;
+import org.nashua.tt151.libraries.parsers.MessageCursor;
+
+/**
+ * Server for the robot and any other clients. One thread runs a selector that
+ * accepts clients, reads from them, writes their queued frames and
+ * disconnects clients that have gone quiet. The thread sleeps in the selector
+ * whenever there is nothing to do. Sending only queues a frame, so a client
+ * that stops reading never holds up the thread that sent to it. Clients that
+ * agree to Handshake.UDP can also send telemetry datagrams to the same port;
+ * those are matched to the client by address and checked against its
+ * DatagramStream.
+ * <p>
+ * Every client is one Client object in a ClientRegistry, which any thread
+ * can read and walk while others add or remove clients. A client is closed
+ * and reported to the listener exactly once, by whichever thread unregisters
+ * it first.
+ * <p>
+ * Clients that agree to Handshake.HEARTBEAT are sent a heartbeat every
+ * interval and are disconnected after missing a few, instead of after the
+ * idle timeout. The selector sleeps until the next beat or deadline is due.
+ * <p>
+ * Read-only viewers (pit, coach and scouting laptops) connect to a separate
+ * port. They are not reported to the listener as clients, anything they send
+ * is thrown away, and they only get what is broadcast. A broadcast message is
+ * encoded once into a read-only buffer that every viewer's queue shares, and
+ * each viewer has its own rate limit, so a slow viewer only loses its own
+ * frames.
+ */
 public class ServerConnection {
 	public static interface ConnectionListener {
 		public void onConnect( Socket s );
 		
 		public void onDataReceived( Socket s, String msg );
 		
+		/**
+		 * Called instead of onDataReceived for a FastFormat message, which is
+		 * decoded straight from the bytes read without building a String
+		 * 
+		 * @param msg The message, only valid until this method returns
+		 */
+		public void onFastReceived( Socket s, FastMessage msg );
+		
 		public void onDisconnect( Socket s );
+		
+		/**
+		 * Called when a client's hello has been answered
+		 * 
+		 * @param capabilities The capabilities both ends support (see Handshake)
+		 */
+		public void onNegotiated( Socket s, int capabilities );
+		
+		/**
+		 * Called when a viewer connects, after the retained messages have
+		 * been queued for it
+		 */
+		public void onViewerConnect( Socket s );
 	}
 	
-	private ArrayList<Socket> clients = new ArrayList<Socket>();
-	private ConnectionListener listener;
-	private int port;
-	private HashMap<Socket, BufferedReader> readers = new HashMap<Socket, BufferedReader>();
-	private ServerSocket server;
-	private HashMap<Socket, PrintWriter> writers = new HashMap<Socket, PrintWriter>();
-	private HashMap<Socket, Long> lastMsg = new HashMap<Socket, Long>();
+	private static final Charset ISO_8859_1 = Charset.forName( "ISO-8859-1" );
+	// Clients without heartbeats that send nothing for this long are disconnected
+	private static final long IDLE_TIMEOUT = 2500;
+	private static final int READ_BUFFER_SIZE = 8192;
+	public static final int DEFAULT_QUEUE_LIMIT = 256;
+	// Bytes per second each viewer is sent at most, and how far it can burst over that
+	public static final int VIEWER_RATE = 32768;
+	public static final int VIEWER_BURST = 8192;
 	
-	public ServerConnection( int port, ConnectionListener cl ) throws IOException {
-		listener = cl;
-		this.port = port;
-		server = new ServerSocket( port );
-		new Thread() {
-			public void run() {
-				while ( true ) {
+	/**
+	 * Everything kept for one client
+	 */
+	private class Client {
+		final SocketChannel channel;
+		final Socket socket;
+		final SelectionKey key;
+		final FrameDecoder decoder;
+		final WriteQueue queue;
+		final DatagramStream datagrams = new DatagramStream();
+		final ChannelTable channels = new ChannelTable();
+		final boolean viewer;
+		volatile long lastMsg;
+		volatile int capabilities;
+		// Null unless the client agreed to heartbeats
+		volatile HeartbeatMonitor heartbeat;
+		// Rate limit of a viewer, only touched with the retained map locked
+		long tokens = VIEWER_BURST;
+		long refilledAt;
+		long throttledCount;
+		
+		Client( SocketChannel channel, SelectionKey key, boolean viewer ) {
+			this.channel = channel;
+			this.socket = channel.socket();
+			this.key = key;
+			this.viewer = viewer;
+			this.decoder = new FrameDecoder( new FrameDecoder.FrameListener() {
+				public void onMessage( ByteBuffer msg ) {
+					// Only the connection itself shows the client is still there, not datagrams
+					lastMsg = System.currentTimeMillis();
 					try {
-						Socket c = server.accept();
-						readers.put( c, new BufferedReader( new InputStreamReader( c.getInputStream() ) ) );
-						writers.put( c, new PrintWriter( c.getOutputStream() ) );
-						clients.add( c );
-						if ( listener != null ) {
-							listener.onConnect( c );
-						}
-//						Thread.sleep( 1 );
-					} catch ( Exception e ) {}
+						receive( Client.this, msg );
+					} catch ( RuntimeException e ) {
+						// One bad message must not stop the rest of the stream
+						System.err.println( "Dropped message from " + socket.getRemoteSocketAddress() + ": " + e );
+					}
 				}
+			} );
+			this.queue = new WriteQueue( queueLimit, policy );
+			this.lastMsg = System.currentTimeMillis();
+			this.refilledAt = lastMsg;
+		}
+		
+		/**
+		 * Stops selecting the client, writes what its socket takes without
+		 * blocking and closes it. Called once, after it is unregistered.
+		 */
+		void close() {
+			key.cancel();
+			try {
+				// Best effort, whatever the socket does not take now is lost
+				queue.write( channel );
+			} catch ( IOException e ) {}
+			try {
+				channel.close();
+			} catch ( IOException e ) {}
+		}
+		
+		/**
+		 * @return System.currentTimeMillis() after which the client is taken to be gone
+		 */
+		long getDeadline() {
+			HeartbeatMonitor h = heartbeat;
+			return lastMsg + ( h == null ? IDLE_TIMEOUT : h.getTimeout() );
+		}
+		
+		/**
+		 * @return False if sending this many bytes now would break the rate limit
+		 */
+		boolean take( int bytes, long now ) {
+			tokens = Math.min( VIEWER_BURST, tokens + ( now - refilledAt ) * VIEWER_RATE / 1000 );
+			refilledAt = now;
+			if ( tokens < bytes ) {
+				throttledCount++;
+				return false;
 			}
-		}.start();
-		new Thread() {
+			tokens -= bytes;
+			return true;
+		}
+	}
+	
+	private final ConnectionListener listener;
+	private final int port;
+	private final int queueLimit;
+	private final WriteQueue.OverflowPolicy policy;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	// Null if there is no viewer port
+	private final ServerSocketChannel viewerServer;
+	private final int viewerPort;
+	// Broadcast messages every new viewer is sent first by channel ID, also the lock for broadcasting
+	private final Map<Integer, ByteBuffer> retained = new LinkedHashMap<Integer, ByteBuffer>();
+	// Turns FastFormat messages into StringFormat for viewers, only used with the retained map locked
+	private final MessageCursor viewerCursor = new MessageCursor();
+	private volatile int heartbeatInterval = Heartbeat.DEFAULT_INTERVAL;
+	private volatile int missedBeats = Heartbeat.DEFAULT_MISSED_BEATS;
+	private final ClientRegistry<Socket, Client> clients = new ClientRegistry<Socket, Client>();
+	// Clients whose queue went from empty to not empty, waiting for the selector thread to write
+	private final ConcurrentLinkedQueue<Client> ready = new ConcurrentLinkedQueue<Client>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+	// Only the selector thread decodes into it
+	private final FastMessage fastMessage = new FastMessage();
+	// Null if the UDP port could not be opened, then clients are not offered UDP
+	private final DatagramChannel udp;
+	
+	public ServerConnection( int port, ConnectionListener cl ) throws IOException {
+		this( port, cl, DEFAULT_QUEUE_LIMIT, WriteQueue.OverflowPolicy.DROP_OLDEST );
+	}
+	
+	/**
+	 * @param viewerPort Port read-only viewers connect to, 0 for none
+	 */
+	public ServerConnection( int port, int viewerPort, ConnectionListener cl ) throws IOException {
+		this( port, viewerPort, cl, DEFAULT_QUEUE_LIMIT, WriteQueue.OverflowPolicy.DROP_OLDEST );
+	}
+	
+	/**
+	 * @param queueLimit Most frames kept waiting for each client
+	 * @param policy What to do when a client's queue is full
+	 */
+	public ServerConnection( int port, ConnectionListener cl, int queueLimit, WriteQueue.OverflowPolicy policy ) throws IOException {
+		this( port, 0, cl, queueLimit, policy );
+	}
+	
+	/**
+	 * @param viewerPort Port read-only viewers connect to, 0 for none
+	 * @param queueLimit Most frames kept waiting for each client
+	 * @param policy What to do when a client's queue is full
+	 */
+	public ServerConnection( int port, int viewerPort, ConnectionListener cl, int queueLimit, WriteQueue.OverflowPolicy policy ) throws IOException {
+		listener = cl;
+		this.port = port;
+		this.viewerPort = viewerPort;
+		this.queueLimit = queueLimit;
+		this.policy = policy;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().bind( new InetSocketAddress( port ) );
+		server.configureBlocking( false );
+		server.register( selector, SelectionKey.OP_ACCEPT );
+		if ( viewerPort != 0 ) {
+			viewerServer = ServerSocketChannel.open();
+			viewerServer.socket().bind( new InetSocketAddress( viewerPort ) );
+			viewerServer.configureBlocking( false );
+			viewerServer.register( selector, SelectionKey.OP_ACCEPT );
+		} else {
+			viewerServer = null;
+		}
+		udp = openDatagramChannel();
+		Thread t = new Thread( "ServerConnection" ) {
 			public void run() {
-				while ( true ) {
+				while ( selector.isOpen() ) {
 					try {
-						for ( int i = 0; i < clients.size(); i++ ) {
-							Socket client = clients.get( i );
-							BufferedReader reader = readers.get( client );
-							if ( client != null && client.isConnected() && !client.isClosed() ) {
-								if ( reader.ready() ) {
-									int length = reader.read();
-									char[] buffer = new char[length];
-									int offset = 0;
-									while ( offset < length && reader.ready() ) {
-										offset += reader.read( buffer, offset, length - offset );
-									}
-									String msg = new String( buffer );
-									if ( msg != null && !msg.trim().equals( "" ) ) {
-										if ( listener != null ) {
-											lastMsg.put( client, System.currentTimeMillis() );
-											listener.onDataReceived( client, msg );
-										}
-									}
-								} else {
-									try {
-										if ( ( System.currentTimeMillis() - lastMsg.get( client ).longValue() ) > 2500 ) {
-											disconnect( client, true );
-											i--;
-										}
-									} catch ( Exception e ) {}
-								}
-							} else if ( client != null ) {
-								disconnect( client, false );
-								i--;
-							}
-						}
+						select();
 					} catch ( Exception e ) {
 						e.printStackTrace();
 					}
 				}
 			}
-		}.start();
+		};
+		t.setDaemon( true );
+		t.start();
 	}
 	
-	public void disconnect( boolean byeMessage ) {
+	private DatagramChannel openDatagramChannel() {
+		DatagramChannel channel = null;
 		try {
-			for ( int i = 0; i < clients.size(); i++ ) {
-				disconnect( clients.get( i ), byeMessage );
-				i--;
+			channel = DatagramChannel.open();
+			channel.socket().bind( new InetSocketAddress( port ) );
+			channel.configureBlocking( false );
+			channel.register( selector, SelectionKey.OP_READ );
+			return channel;
+		} catch ( IOException e ) {
+			System.err.println( "UDP telemetry unavailable: " + e.getMessage() );
+			if ( channel != null ) {
+				try {
+					channel.close();
+				} catch ( IOException e2 ) {}
 			}
-		} catch ( Exception e ) {}
+			return null;
+		}
 	}
 	
-	public void disconnect( Socket client, boolean byeMessage ) {
+	/**
+	 * Waits for something to do and does it
+	 */
+	private void select() throws IOException {
+		selector.select( getTimeout() );
+		if ( !selector.isOpen() ) {
+			return;
+		}
+		
+		// Interest ops are only changed on this thread
+		Client c;
+		while ( ( c = ready.poll() ) != null ) {
+			try {
+				if ( c.key.isValid() && !c.queue.write( c.channel ) ) {
+					c.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+				}
+			} catch ( IOException e ) {
+				disconnect( c.socket, false );
+			} catch ( CancelledKeyException e ) {
+				// Disconnected by another thread meanwhile
+			}
+		}
+		
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while ( keys.hasNext() ) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			try {
+				handle( key );
+			} catch ( CancelledKeyException e ) {
+				// Disconnected by another thread meanwhile
+			}
+		}
+		
+		long now = System.currentTimeMillis();
+		for ( Client client : clients ) {
+			// Viewers have nothing to say, a dead one is found when writing to it fails
+			if ( client.viewer ) {
+				continue;
+			}
+			if ( now > client.getDeadline() ) {
+				disconnect( client.socket, true );
+				continue;
+			}
+			HeartbeatMonitor h = client.heartbeat;
+			if ( h != null && now >= h.getNextBeat() ) {
+				send( client.socket, h.createBeat( now ) );
+			}
+		}
+	}
+	
+	/**
+	 * Does what a selected key is ready for
+	 * 
+	 * @throws CancelledKeyException If another thread disconnected the client
+	 */
+	private void handle( SelectionKey key ) throws IOException {
+		if ( !key.isValid() ) {
+			return;
+		}
+		if ( key.isAcceptable() ) {
+			accept( (ServerSocketChannel) key.channel() );
+			return;
+		}
+		if ( key.channel() == udp ) {
+			readDatagrams();
+			return;
+		}
+		Client c = (Client) key.attachment();
 		try {
-			if ( byeMessage ) {
-				send( client, "[Disconnected]" );
+			if ( key.isReadable() ) {
+				read( c );
+			}
+			if ( key.isValid() && key.isWritable() && c.queue.write( c.channel ) ) {
+				key.interestOps( SelectionKey.OP_READ );
+			}
+		} catch ( IOException e ) {
+			disconnect( c.socket, false );
+		}
+	}
+	
+	/**
+	 * @return How long the selector can sleep before the next client could
+	 *         time out or is due a heartbeat
+	 */
+	private long getTimeout() {
+		long now = System.currentTimeMillis();
+		long timeout = IDLE_TIMEOUT;
+		for ( Client c : clients ) {
+			if ( !c.viewer ) {
+				timeout = Math.min( timeout, c.getDeadline() - now + 1 );
+				HeartbeatMonitor h = c.heartbeat;
+				if ( h != null ) {
+					timeout = Math.min( timeout, h.getNextBeat() - now );
+				}
+			}
+		}
+		return Math.max( timeout, 1 );
+	}
+	
+	private void accept( ServerSocketChannel from ) throws IOException {
+		SocketChannel channel = from.accept();
+		if ( channel == null ) {
+			return;
+		}
+		channel.configureBlocking( false );
+		// Replies and heartbeats are small and should not wait for the last write to be acknowledged
+		channel.socket().setTcpNoDelay( true );
+		SelectionKey key = channel.register( selector, SelectionKey.OP_READ );
+		Client c = new Client( channel, key, from == viewerServer );
+		key.attach( c );
+		if ( c.viewer ) {
+			// Locked so no broadcast falls between the replay and the viewer being added
+			synchronized ( retained ) {
+				clients.add( c.socket, c );
+				for ( ByteBuffer frame : retained.values() ) {
+					offer( c, frame.duplicate() );
+				}
+			}
+			if ( listener != null ) {
+				listener.onViewerConnect( c.socket );
+			}
+			return;
+		}
+		clients.add( c.socket, c );
+		if ( listener != null ) {
+			listener.onConnect( c.socket );
+		}
+	}
+	
+	private void read( Client c ) throws IOException {
+		readBuffer.clear();
+		if ( c.channel.read( readBuffer ) == -1 ) {
+			disconnect( c.socket, false );
+			return;
+		}
+		if ( c.viewer ) {
+			return;
+		}
+		readBuffer.flip();
+		c.decoder.read( readBuffer );
+	}
+	
+	/**
+	 * Reads every datagram waiting and dispatches the messages in the ones
+	 * that are not late
+	 */
+	private void readDatagrams() throws IOException {
+		InetSocketAddress from;
+		readBuffer.clear();
+		while ( ( from = (InetSocketAddress) udp.receive( readBuffer ) ) != null ) {
+			int end = readBuffer.position();
+			byte[] datagram = readBuffer.array();
+			Client c = getDatagramClient( from.getAddress() );
+			if ( c == null || end < Framing.DATAGRAM_HEADER_LENGTH ) {
+				readBuffer.clear();
+				continue;
+			}
+			if ( !c.datagrams.accept( Framing.getDatagramSequence( (char) datagram[0], (char) datagram[1] ) ) ) {
+				readBuffer.clear();
+				continue;
+			}
+			int offset = Framing.DATAGRAM_HEADER_LENGTH;
+			int frameEnd;
+			while ( ( frameEnd = Framing.getFrameEnd( datagram, offset, end ) ) != -1 ) {
+				readBuffer.limit( frameEnd );
+				readBuffer.position( offset + 1 );
+				receive( c, readBuffer );
+				readBuffer.clear();
+				offset = frameEnd;
+			}
+			readBuffer.clear();
+		}
+	}
+	
+	/**
+	 * Passes on one message read from a client. A FastFormat message is
+	 * decoded straight from the buffer into fastMessage, anything else is
+	 * read as an ISO-8859-1 String.
+	 * 
+	 * @param msg The message, from the buffer's position to its limit
+	 */
+	private void receive( Client client, ByteBuffer msg ) {
+		if ( FastBufferCodec.decode( msg, fastMessage ) ) {
+			if ( listener != null ) {
+				listener.onFastReceived( client.socket, fastMessage );
+			}
+			return;
+		}
+		dispatch( client, new String( msg.array(), msg.arrayOffset() + msg.position(), msg.remaining(), ISO_8859_1 ) );
+	}
+	
+	/**
+	 * @return The client at an address that agreed to UDP, or null
+	 */
+	private Client getDatagramClient( InetAddress address ) {
+		for ( Client c : clients ) {
+			if ( !c.viewer && ( c.capabilities & Handshake.UDP ) != 0 && address.equals( c.socket.getInetAddress() ) ) {
+				return c;
 			}
-			clients.remove( client );
-			readers.remove( client );
-			writers.remove( client );
+		}
+		return null;
+	}
+	
+	private void dispatch( Client client, String msg ) {
+		if ( Handshake.isHello( msg ) ) {
+			negotiate( client, msg );
+			return;
+		}
+		if ( Heartbeat.isBeat( msg ) ) {
+			// Answer straight away, the client times the round trip
+			send( client.socket, Heartbeat.createEcho( msg, System.currentTimeMillis() ) );
+			return;
+		}
+		if ( Heartbeat.isEcho( msg ) ) {
+			HeartbeatMonitor h = client.heartbeat;
+			if ( h != null ) {
+				h.onEcho( msg, System.currentTimeMillis() );
+			}
+			return;
+		}
+		if ( msg != null && !msg.trim().equals( "" ) ) {
 			if ( listener != null ) {
-				listener.onDisconnect( client );
+				listener.onDataReceived( client.socket, msg );
+			}
+		}
+	}
+	
+	/**
+	 * Answers a client's hello with the capabilities both ends support. The
+	 * client only uses what the answer lists.
+	 */
+	private void negotiate( Client client, String hello ) {
+		int supported = udp == null ? Handshake.ALL & ~Handshake.UDP : Handshake.ALL;
+		int agreed = supported & Handshake.getCapabilities( hello );
+		client.capabilities = agreed;
+		if ( ( agreed & Handshake.HEARTBEAT ) != 0 ) {
+			client.heartbeat = new HeartbeatMonitor( heartbeatInterval, missedBeats );
+		}
+		send( client.socket, Handshake.createMessage( agreed ) );
+		if ( listener != null ) {
+			listener.onNegotiated( client.socket, agreed );
+		}
+	}
+	
+	/**
+	 * Sets the heartbeats of clients that negotiate from now on
+	 * 
+	 * @param interval Milliseconds between heartbeats
+	 * @param missedBeats Heartbeats in a row a client can miss before it is disconnected
+	 */
+	public void setHeartbeat( int interval, int missedBeats ) {
+		heartbeatInterval = interval;
+		this.missedBeats = missedBeats;
+	}
+	
+	/**
+	 * @return The heartbeats sent to a client, which keep round trip
+	 *         percentiles, jitter and clock offset, or null if the client did
+	 *         not agree to heartbeats
+	 */
+	public HeartbeatMonitor getHeartbeat( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? null : c.heartbeat;
+	}
+	
+	/**
+	 * @return The capabilities agreed with a client, 0 if it has not sent a hello
+	 */
+	public int getCapabilities( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? 0 : c.capabilities;
+	}
+	
+	public void disconnect( boolean byeMessage ) {
+		for ( Client c : clients ) {
+			disconnect( c.socket, byeMessage );
+		}
+	}
+	
+	public void disconnect( Socket client, boolean byeMessage ) {
+		if ( byeMessage ) {
+			send( client, "[Disconnected]" );
+		}
+		// Only the thread that removes the client closes it and reports it
+		Client c = clients.remove( client );
+		if ( c == null ) {
+			return;
+		}
+		c.close();
+		if ( listener != null && !c.viewer ) {
+			listener.onDisconnect( client );
+		}
+	}
+	
+	/**
+	 * Disconnects every client and stops the server
+	 */
+	public void close() {
+		disconnect( false );
+		try {
+			selector.close();
+			server.close();
+			if ( viewerServer != null ) {
+				viewerServer.close();
 			}
-		} catch ( Exception e ) {}
+			if ( udp != null ) {
+				udp.close();
+			}
+		} catch ( IOException e ) {}
+	}
+	
+	/**
+	 * @return The decoder for a client, which keeps its frame and character counts
+	 */
+	public FrameDecoder getFrameDecoder( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? null : c.decoder;
+	}
+	
+	/**
+	 * @return The queue of frames waiting to be written to a client, which keeps its depth and latency
+	 */
+	public WriteQueue getWriteQueue( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? null : c.queue;
+	}
+	
+	/**
+	 * @return The sequence tracking of a client's telemetry datagrams, which keeps its loss and late counts
+	 */
+	public DatagramStream getDatagramStream( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? null : c.datagrams;
+	}
+	
+	/**
+	 * @return The channels a client has registered, null if it is not connected
+	 */
+	public ChannelTable getChannelTable( Socket client ) {
+		Client c = clients.get( client );
+		return c == null ? null : c.channels;
+	}
+	
+	/**
+	 * @return Number of broadcast frames a viewer was not sent because of its rate limit
+	 */
+	public long getThrottledCount( Socket viewer ) {
+		Client c = clients.get( viewer );
+		if ( c == null ) {
+			return 0;
+		}
+		synchronized ( retained ) {
+			return c.throttledCount;
+		}
+	}
+	
+	/**
+	 * @return The viewers connected now
+	 */
+	public List<Socket> getViewers() {
+		List<Socket> viewers = new ArrayList<Socket>();
+		for ( Client c : clients ) {
+			if ( c.viewer ) {
+				viewers.add( c.socket );
+			}
+		}
+		return viewers;
 	}
 	
 	public int getPort() {
 		return port;
 	}
 	
+	/**
+	 * @return Port viewers connect to, 0 if there is none
+	 */
+	public int getViewerPort() {
+		return viewerPort;
+	}
+	
+	/**
+	 * Queues a message for one client and returns straight away. The selector
+	 * thread writes it. Characters are written as ISO-8859-1, one byte each,
+	 * which is what the cRIO reads. A message longer than
+	 * Framing.MAX_MESSAGE_LENGTH does not fit in a frame and is dropped.
+	 */
 	public void send( Socket client, String msg ) {
-		try {
-			PrintWriter writer = writers.get( client );
-			System.out.println( msg );
-			writer.print( (char) msg.length() );
-			writer.print( msg );
-			writer.flush();
-		} catch ( Exception e ) {}
+		Client c = clients.get( client );
+		ByteBuffer frame = encode( msg );
+		if ( c != null && frame != null ) {
+			offer( c, frame );
+		}
 	}
 	
+	/**
+	 * Sends a message to every client that is not a viewer, encoding it once
+	 */
 	public void send( String msg ) {
-		try {
-			for ( int i = 0; i < clients.size(); i++ ) {
-				send( clients.get( i ), msg );
+		ByteBuffer frame = encode( msg );
+		if ( frame == null ) {
+			return;
+		}
+		for ( Client c : clients ) {
+			if ( !c.viewer ) {
+				offer( c, frame.duplicate() );
 			}
-		} catch ( Exception e ) {}
+		}
+	}
+	
+	/**
+	 * Sends a message to every viewer, encoding it once. Viewers over their
+	 * rate limit skip it.
+	 */
+	public void broadcast( String msg ) {
+		broadcast( msg, -1 );
+	}
+	
+	/**
+	 * Sends a message to every viewer, encoding it once. Viewers never send a
+	 * HELLO, so a FastFormat message is sent to them as StringFormat (see
+	 * Framing). Viewers over their rate limit skip it.
+	 * 
+	 * @param channel ID of the channel the message registers, if viewers that
+	 *            connect later need it too, otherwise -1. A retained message
+	 *            replaces the one retained earlier for the same ID and skips
+	 *            the rate limit.
+	 */
+	public void broadcast( String msg, int channel ) {
+		boolean retain = channel >= 0;
+		long now = System.currentTimeMillis();
+		synchronized ( retained ) {
+			if ( msg.length() > 0 && msg.charAt( 0 ) == Framing.FAST ) {
+				msg = viewerCursor.reset( msg ) ? viewerCursor.toStringFormat() : null;
+				if ( msg == null ) {
+					return;
+				}
+			}
+			ByteBuffer frame = encode( msg );
+			if ( frame == null ) {
+				return;
+			}
+			int length = frame.remaining();
+			if ( retain ) {
+				retained.put( channel, frame );
+			}
+			for ( Client c : clients ) {
+				if ( c.viewer && ( retain || c.take( length, now ) ) ) {
+					offer( c, frame.duplicate() );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Forgets the retained messages, for when what they describe is gone
+	 */
+	public void clearRetained() {
+		synchronized ( retained ) {
+			retained.clear();
+		}
+	}
+	
+	/**
+	 * @return A read-only frame holding the message, or null if the message
+	 *         is too long for a frame and was dropped
+	 */
+	private static ByteBuffer encode( String msg ) {
+		if ( msg.length() > Framing.MAX_MESSAGE_LENGTH ) {
+			System.err.println( "Dropped message of " + msg.length() + " characters, a frame holds " + Framing.MAX_MESSAGE_LENGTH + ": " + msg.substring( 0, 32 ) + "..." );
+			return null;
+		}
+		ByteBuffer frame = ByteBuffer.allocate( 1 + msg.length() );
+		frame.put( (byte) msg.length() );
+		for ( int i = 0; i < msg.length(); i++ ) {
+			frame.put( (byte) msg.charAt( i ) );
+		}
+		frame.flip();
+		return frame.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Queues a frame for a client and wakes the selector thread if it has to
+	 * start writing to it
+	 */
+	private void offer( Client c, ByteBuffer frame ) {
+		boolean wasEmpty;
+		boolean queued;
+		synchronized ( c.queue ) {
+			wasEmpty = c.queue.isEmpty();
+			queued = c.queue.offer( frame );
+		}
+		if ( !queued ) {
+			disconnect( c.socket, false );
+		} else if ( wasEmpty ) {
+			ready.add( c );
+			selector.wakeup();
+		}
 	}
 }
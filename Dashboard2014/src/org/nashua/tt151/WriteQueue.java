@@ -0,0 +1,187 @@
+package org.nashua.tt151;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Frames waiting to be written to one client. The queue holds at most a fixed
+ * number of frames, and what happens when a frame is sent to a full queue is
+ * up to its overflow policy. Frames are written together in as few calls as
+ * the socket allows. The queue keeps its own depth and latency statistics.
+ */
+public class WriteQueue {
+	public static enum OverflowPolicy {
+		/**
+		 * Throw away the oldest frame that has not started being written
+		 */
+		DROP_OLDEST,
+		/**
+		 * Refuse the frame, the client should be disconnected
+		 */
+		DISCONNECT
+	}
+	
+	private final OverflowPolicy policy;
+	private final ByteBuffer[] frames;
+	private final long[] queuedAt;
+	// Frames in the order they are written, reused for every write
+	private final ByteBuffer[] gather;
+	private int head;
+	private int size;
+	
+	private int maxDepth;
+	private long droppedCount;
+	private long writtenCount;
+	private long totalNanos;
+	private long maxNanos;
+	
+	/**
+	 * @param limit Most frames the queue holds, at least 2
+	 */
+	public WriteQueue( int limit, OverflowPolicy policy ) {
+		if ( limit < 2 ) {
+			throw new IllegalArgumentException( "Queue limit must be at least 2" );
+		}
+		this.policy = policy;
+		frames = new ByteBuffer[limit];
+		queuedAt = new long[limit];
+		gather = new ByteBuffer[limit];
+	}
+	
+	/**
+	 * Adds a frame to the end of the queue
+	 * 
+	 * @return False if the queue was full and its policy is to disconnect
+	 */
+	public synchronized boolean offer( ByteBuffer frame ) {
+		if ( size == frames.length ) {
+			if ( policy == OverflowPolicy.DISCONNECT ) {
+				return false;
+			}
+			// A frame that is partly written has to be finished or the stream breaks
+			drop( frames[head].position() > 0 ? 1 : 0 );
+		}
+		int i = ( head + size ) % frames.length;
+		frames[i] = frame;
+		queuedAt[i] = System.nanoTime();
+		size++;
+		if ( size > maxDepth ) {
+			maxDepth = size;
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the frame n places from the head
+	 */
+	private void drop( int n ) {
+		for ( int j = n; j > 0; j-- ) {
+			int to = ( head + j ) % frames.length;
+			int from = ( head + j - 1 ) % frames.length;
+			frames[to] = frames[from];
+			queuedAt[to] = queuedAt[from];
+		}
+		frames[head] = null;
+		head = ( head + 1 ) % frames.length;
+		size--;
+		droppedCount++;
+	}
+	
+	/**
+	 * Writes as many frames as the channel takes without blocking
+	 * 
+	 * @return True if the queue is now empty
+	 */
+	public synchronized boolean write( GatheringByteChannel channel ) throws IOException {
+		if ( size == 0 ) {
+			return true;
+		}
+		for ( int j = 0; j < size; j++ ) {
+			gather[j] = frames[( head + j ) % frames.length];
+		}
+		channel.write( gather, 0, size );
+		long now = System.nanoTime();
+		while ( size > 0 && !frames[head].hasRemaining() ) {
+			record( now - queuedAt[head] );
+			frames[head] = null;
+			head = ( head + 1 ) % frames.length;
+			size--;
+		}
+		for ( int j = 0; j < gather.length && gather[j] != null; j++ ) {
+			gather[j] = null;
+		}
+		return size == 0;
+	}
+	
+	private void record( long nanos ) {
+		writtenCount++;
+		totalNanos += nanos;
+		if ( nanos > maxNanos ) {
+			maxNanos = nanos;
+		}
+	}
+	
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+	
+	public int getLimit() {
+		return frames.length;
+	}
+	
+	/**
+	 * @return Number of frames waiting to be written
+	 */
+	public synchronized int getDepth() {
+		return size;
+	}
+	
+	/**
+	 * @return Most frames that were waiting at once
+	 */
+	public synchronized int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * @return Number of frames thrown away because the queue was full
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+	
+	public synchronized long getWrittenCount() {
+		return writtenCount;
+	}
+	
+	/**
+	 * @return Average time from a frame being queued to it being written in nanoseconds
+	 */
+	public synchronized long getAverageNanos() {
+		return writtenCount == 0 ? 0 : totalNanos / writtenCount;
+	}
+	
+	/**
+	 * @return Longest time a single frame waited in nanoseconds
+	 */
+	public synchronized long getMaxNanos() {
+		return maxNanos;
+	}
+	
+	public synchronized void resetStats() {
+		maxDepth = size;
+		droppedCount = 0;
+		writtenCount = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+	
+	public String toString() {
+		return "depth=" + getDepth() + "/" + getLimit() + " max=" + getMaxDepth() + " dropped=" + getDroppedCount() + " written=" + getWrittenCount() + " avg=" + getAverageNanos() / 1000 + "us max=" + getMaxNanos() / 1000 + "us";
+	}
+}
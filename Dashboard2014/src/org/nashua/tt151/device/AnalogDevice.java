@@ -7,17 +7,19 @@ import java.awt.Graphics;
 
 public class AnalogDevice extends Device {
 	
-	public enum AnalogType {
+	public enum AnalogType implements DeviceType {
 		ACCELEROMETER( 'A', new Color( 0, 0, 255 ) ),
 		GYRO( 'G', new Color( 255, 255, 0 ) ),
 		POTENTIOMETER( 'P', new Color( 0, 255, 0 ) ),
 		UNKNOWN( 'U', new Color( 255, 0, 0 ) );
 		
+		private static final AnalogType[] VALUES = values();
+		
 		private char sh;
 		private Color c;
 		
 		public static AnalogType getFromShorthand( char sh ) {
-			for ( AnalogType a : AnalogType.values() ) {
+			for ( AnalogType a : VALUES ) {
 				if ( a.sh == sh ) {
 					return a;
 				}
@@ -29,6 +31,10 @@ public class AnalogDevice extends Device {
 			this.sh = sh;
 			this.c = c;
 		}
+		
+		public char getShorthand() {
+			return sh;
+		}
 	}
 	
 	private double value;
@@ -40,6 +46,18 @@ public class AnalogDevice extends Device {
 		this.type = type;
 	}
 	
+	public AnalogType getType() {
+		return type;
+	}
+	
+	public double getValue() {
+		return value;
+	}
+	
+	public void setValue( double value ) {
+		this.value = value;
+	}
+	
 	public void paintComponent( Graphics g ) {
 		//Draw bg
 		g.setColor( getBackground() );
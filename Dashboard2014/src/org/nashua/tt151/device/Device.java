@@ -30,6 +30,10 @@ public abstract class Device extends JPanel {
 		return slot;
 	}
 	
+	public String getName() {
+		return name;
+	}
+	
 	protected void drawSlot( Graphics g ) {
 		g.setColor( Color.WHITE );
 		FontMetrics fm = g.getFontMetrics();
@@ -0,0 +1,8 @@
+package org.nashua.tt151.device;
+
+/**
+ * A device type the robot identifies with a single character
+ */
+public interface DeviceType {
+	public char getShorthand();
+}
@@ -14,15 +14,17 @@ public class DigitalIODevice extends Device {
 	public static double LIM_ON = 1.0;
 	public static double LIM_OFF = 0.0;
 	
-	public enum DIGIOType {
+	public enum DIGIOType implements DeviceType {
 		LIMIT_SWITCH( 'L' ),
 		ENCODER( 'E' ),
 		UNKNOWN( 'U' );
 		
+		private static final DIGIOType[] VALUES = values();
+		
 		private char sh;
 		
 		public static DIGIOType getFromShorthand( char sh ) {
-			for ( DIGIOType d : DIGIOType.values() ) {
+			for ( DIGIOType d : VALUES ) {
 				if ( d.sh == sh ) {
 					return d;
 				}
@@ -33,6 +35,10 @@ public class DigitalIODevice extends Device {
 		private DIGIOType( char sh ) {
 			this.sh = sh;
 		}
+		
+		public char getShorthand() {
+			return sh;
+		}
 	}
 	
 	private DIGIOType type;
@@ -48,6 +54,18 @@ public class DigitalIODevice extends Device {
 		}
 	}
 	
+	public DIGIOType getType() {
+		return type;
+	}
+	
+	public double getValue() {
+		return value;
+	}
+	
+	public void setValue( double value ) {
+		this.value = value;
+	}
+	
 	public void paintComponent( Graphics g ) {
 		// Draw bg
 		g.setColor( getBackground() );
@@ -10,17 +10,19 @@ public class PWMDevice extends Device {
 	private static final Color FORWARD = new Color( 0, 255, 0 );
 	private static final Color BACKWARD = new Color( 255, 0, 0 );
 	
-	public enum PWMType {
+	public enum PWMType implements DeviceType {
 		JAGUAR( 'J' ),
 		VICTOR( 'V' ),
 		TALON( 'T' ),
 		SERVO( 'S' ),
 		UNKNOWN( 'U' );
 		
+		private static final PWMType[] VALUES = values();
+		
 		private char sh;
 		
 		public static PWMType getFromShorthand( char sh ) {
-			for ( PWMType p : PWMType.values() ) {
+			for ( PWMType p : VALUES ) {
 				if ( p.sh == sh ) {
 					return p;
 				}
@@ -31,6 +33,10 @@ public class PWMDevice extends Device {
 		private PWMType( char sh ) {
 			this.sh = sh;
 		}
+		
+		public char getShorthand() {
+			return sh;
+		}
 	}
 	
 	private String name;
@@ -43,6 +49,18 @@ public class PWMDevice extends Device {
 		this.type = type;
 	}
 	
+	public PWMType getType() {
+		return type;
+	}
+	
+	public double getValue() {
+		return value;
+	}
+	
+	public void setValue( double value ) {
+		this.value = value;
+	}
+	
 	public void paintComponent( Graphics g ) {
 		// Draw bg
 		g.setColor( getBackground() );
@@ -6,15 +6,17 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 
 public class RelayDevice extends Device {
-	public enum Direction {
+	public enum Direction implements DeviceType {
 		BACKWARD( '-' ),
 		FORWARD( '+' ),
 		BOTH( 'B' );
 		
+		private static final Direction[] VALUES = values();
+		
 		private char sh;
 		
 		public static Direction getFromShorthand( char sh ) {
-			for ( Direction d : Direction.values() ) {
+			for ( Direction d : VALUES ) {
 				if ( d.sh == sh ) {
 					return d;
 				}
@@ -25,6 +27,10 @@ public class RelayDevice extends Device {
 		private Direction( char sh ) {
 			this.sh = sh;
 		}
+		
+		public char getShorthand() {
+			return sh;
+		}
 	}
 	
 	public enum Value {
@@ -32,11 +38,13 @@ public class RelayDevice extends Device {
 		FORWARD( '+', new Color( 0, 255, 0 ) ),
 		OFF( '0', new Color( 255, 255, 0 ) );
 		
+		private static final Value[] VALUES = values();
+		
 		private char sh;
 		private Color c;
 		
 		public static Value getFromShorthand( char sh ) {
-			for ( Value v : Value.values() ) {
+			for ( Value v : VALUES ) {
 				if ( v.sh == sh ) {
 					return v;
 				}
@@ -59,6 +67,18 @@ public class RelayDevice extends Device {
 		this.value = value;
 	}
 	
+	public Direction getDirection() {
+		return dir;
+	}
+	
+	public Value getValue() {
+		return value;
+	}
+	
+	public void setValue( Value value ) {
+		this.value = value;
+	}
+	
 	public void paintComponent( Graphics g ) {
 		// Draw bg
 		g.setColor( getBackground() );
@@ -0,0 +1,80 @@
+package org.nashua.tt151.libraries.parsers;
+
+import java.nio.ByteBuffer;
+
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Command;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Key;
+import org.nashua.tt151.libraries.parsers.ProtocolParsing.Value;
+
+/**
+ * ByteBuffer front end for FastCodec, for use with channels on the dashboard.
+ * Frames are written at the buffer's position and messages are read from
+ * between its position and limit, and the position is moved past them. Bytes
+ * are written one at a time, so the buffer's byte order setting has no effect
+ * on the output. Only heap buffers are supported.
+ *
+ * @version 1.0
+ */
+public final class FastBufferCodec {
+
+	// Prevent instantiation
+	private FastBufferCodec() {}
+
+	/**
+	 * Encodes an integer message as a frame at the buffer's position
+	 *
+	 * @return False (with the buffer untouched) if the frame did not fit in the remaining space
+	 * @throws ParsingException See FastCodec.encode
+	 */
+	public static boolean encode( ByteBuffer buf, Command command, Key key, Value val, int value, String[] args ) throws ParsingException {
+		checkBuffer( buf );
+		if ( val != null && FastCodec.getFrameLength( val, args ) > buf.remaining() ) {
+			return false;
+		}
+		return advance( buf, FastCodec.encode( buf.array(), buf.arrayOffset() + buf.position(), command, key, val, value, args ) );
+	}
+
+	/**
+	 * Encodes a double message as a frame at the buffer's position
+	 *
+	 * @return False (with the buffer untouched) if the frame did not fit in the remaining space
+	 * @throws ParsingException See FastCodec.encode
+	 */
+	public static boolean encode( ByteBuffer buf, Command command, Key key, Value val, double value, String[] args ) throws ParsingException {
+		checkBuffer( buf );
+		if ( val != null && FastCodec.getFrameLength( val, args ) > buf.remaining() ) {
+			return false;
+		}
+		return advance( buf, FastCodec.encode( buf.array(), buf.arrayOffset() + buf.position(), command, key, val, value, args ) );
+	}
+
+	/**
+	 * Decodes the message between the buffer's position and limit, such as
+	 * one passed on by the dashboard's FrameDecoder, and moves the position to
+	 * the limit
+	 *
+	 * @return False (with the buffer untouched) if it is not a well formed FastFormat message
+	 */
+	public static boolean decode( ByteBuffer buf, FastMessage msg ) {
+		checkBuffer( buf );
+		if ( !FastCodec.decode( buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), msg ) ) {
+			return false;
+		}
+		buf.position( buf.limit() );
+		return true;
+	}
+
+	private static boolean advance( ByteBuffer buf, int n ) {
+		if ( n == 0 || n > buf.remaining() ) {
+			return false;
+		}
+		buf.position( buf.position() + n );
+		return true;
+	}
+
+	private static void checkBuffer( ByteBuffer buf ) {
+		if ( !buf.hasArray() ) {
+			throw new IllegalArgumentException( "FastBufferCodec only supports heap buffers" );
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.nashua.tt151.libraries.parsers;
+
+/**
+ * Framing used on the connection between the robot and the dashboard. A
+ * single message is sent as one length character followed by the message.
+ * Several messages can be sent at once in a batch frame:
+ *
+ * <pre>
+ * [BATCH] [high] [low] [length] [message] [length] [message] ...
+ * </pre>
+ *
+ * BATCH is a zero length character, which a single message frame never has
+ * since empty messages are ignored. high and low hold 7 bits each of the
+ * number of characters after them, so the batch header stays in the ASCII
+ * range whatever charset the reader and writer use.
+ *
+ * A message whose first character is FAST holds a FastFormat message after
+ * it. Other messages are StringFormat. FastFormat messages are only sent once
+ * both ends have agreed on it (see Handshake). FastCodec writes and reads
+ * these frames as bytes without building a String for them.
+ *
+ * Telemetry can also be sent in UDP datagrams, each holding a sequence number
+ * and then any number of single message frames:
+ *
+ * <pre>
+ * [high] [low] [length] [message] [length] [message] ...
+ * </pre>
+ *
+ * high and low hold 7 bits each of the sequence number, which goes up by one
+ * for every datagram so the reader can tell lost, late and repeated ones.
+ *
+ * @version 1.0
+ */
+public final class Framing {
+
+	/**
+	 * Length character that marks the start of a batch frame
+	 */
+	public static final char BATCH = 0;
+
+	/**
+	 * First character of a message that holds a FastFormat message. StringFormat
+	 * messages start with a letter.
+	 */
+	public static final char FAST = 1;
+
+	/**
+	 * Longest message a frame can hold. The length character is sent as one
+	 * byte.
+	 */
+	public static final int MAX_MESSAGE_LENGTH = 255;
+
+	/**
+	 * Number of characters in a batch header
+	 */
+	public static final int BATCH_HEADER_LENGTH = 3;
+
+	/**
+	 * Largest number of characters a batch can hold after its header
+	 */
+	public static final int MAX_BATCH_LENGTH = 0x3FFF;
+
+	/**
+	 * Number of characters in a datagram header
+	 */
+	public static final int DATAGRAM_HEADER_LENGTH = 2;
+
+	/**
+	 * Largest datagram sequence number, the one after it is 0
+	 */
+	public static final int MAX_DATAGRAM_SEQUENCE = 0x3FFF;
+
+	// Prevent instantiation
+	private Framing() {}
+
+	/**
+	 * Copies a message and its length character into a buffer
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the length character at
+	 * @param msg The message
+	 * @return The index after the end of the message
+	 */
+	public static int writeFrame( char[] buf, int offset, String msg ) {
+		int length = msg.length();
+		buf[offset] = (char) length;
+		msg.getChars( 0, length, buf, offset + 1 );
+		return offset + 1 + length;
+	}
+
+	/**
+	 * Copies a message and its length into a buffer of bytes, one byte per
+	 * character
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the length at
+	 * @param msg The message
+	 * @return The index after the end of the message
+	 */
+	public static int writeFrame( byte[] buf, int offset, String msg ) {
+		int length = msg.length();
+		buf[offset++] = (byte) length;
+		for ( int i = 0; i < length; i++ ) {
+			buf[offset++] = (byte) msg.charAt( i );
+		}
+		return offset;
+	}
+
+	/**
+	 * @param msg A message
+	 * @return The number of characters writeFrame uses for the message
+	 */
+	public static int getFrameLength( String msg ) {
+		return 1 + msg.length();
+	}
+
+	/**
+	 * Writes a batch header
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the header at
+	 * @param length Number of characters in the batch after the header
+	 */
+	public static void writeBatchHeader( char[] buf, int offset, int length ) {
+		if ( length < 0 || length > MAX_BATCH_LENGTH ) {
+			throw new IllegalArgumentException( "Batch length out of range: " + length );
+		}
+		buf[offset] = BATCH;
+		buf[offset + 1] = (char) ( length >> 7 );
+		buf[offset + 2] = (char) ( length & 0x7F );
+	}
+
+	/**
+	 * Reads the length from the two characters after a BATCH character
+	 *
+	 * @param high The first character after BATCH
+	 * @param low The second character after BATCH
+	 * @return Number of characters in the batch after the header
+	 */
+	public static int getBatchLength( char high, char low ) {
+		return ( ( high & 0x7F ) << 7 ) | ( low & 0x7F );
+	}
+
+	/**
+	 * Writes a datagram header
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the header at
+	 * @param sequence Sequence number of the datagram, wrapped to MAX_DATAGRAM_SEQUENCE
+	 */
+	public static void writeDatagramHeader( char[] buf, int offset, int sequence ) {
+		sequence &= MAX_DATAGRAM_SEQUENCE;
+		buf[offset] = (char) ( sequence >> 7 );
+		buf[offset + 1] = (char) ( sequence & 0x7F );
+	}
+
+	/**
+	 * Writes a datagram header into a buffer of bytes
+	 *
+	 * @param buf The buffer to write to
+	 * @param offset Index in buf to write the header at
+	 * @param sequence Sequence number of the datagram, wrapped to MAX_DATAGRAM_SEQUENCE
+	 */
+	public static void writeDatagramHeader( byte[] buf, int offset, int sequence ) {
+		sequence &= MAX_DATAGRAM_SEQUENCE;
+		buf[offset] = (byte) ( sequence >> 7 );
+		buf[offset + 1] = (byte) ( sequence & 0x7F );
+	}
+
+	/**
+	 * @param high The first character of a datagram
+	 * @param low The second character of a datagram
+	 * @return The sequence number of the datagram
+	 */
+	public static int getDatagramSequence( char high, char low ) {
+		return ( ( high & 0x7F ) << 7 ) | ( low & 0x7F );
+	}
+
+	/**
+	 * Counts how far one sequence number is after another, allowing for the
+	 * numbers starting over
+	 *
+	 * @param previous The sequence number of the newest datagram so far
+	 * @param sequence The sequence number of a datagram just read
+	 * @return How many datagrams sequence is after previous, 0 or less if it is
+	 *         a repeat or older
+	 */
+	public static int getSequenceDistance( int previous, int sequence ) {
+		int distance = ( sequence - previous ) & MAX_DATAGRAM_SEQUENCE;
+		return distance > MAX_DATAGRAM_SEQUENCE / 2 ? distance - MAX_DATAGRAM_SEQUENCE - 1 : distance;
+	}
+
+	/**
+	 * Finds the end of the frame starting at offset inside a batch or datagram
+	 *
+	 * @param buf The batch or datagram
+	 * @param offset Index of the length character of the frame
+	 * @param end Index after the last character of the batch
+	 * @return Index after the end of the frame, or -1 if the frame runs past end
+	 */
+	public static int getFrameEnd( char[] buf, int offset, int end ) {
+		if ( offset >= end ) {
+			return -1;
+		}
+		int frameEnd = offset + 1 + buf[offset];
+		return frameEnd <= end ? frameEnd : -1;
+	}
+
+	/**
+	 * Same as getFrameEnd( char[], int, int ) for a buffer of bytes, whose
+	 * length bytes are unsigned
+	 *
+	 * @param buf The batch or datagram
+	 * @param offset Index of the length byte of the frame
+	 * @param end Index after the last byte of the batch
+	 * @return Index after the end of the frame, or -1 if the frame runs past end
+	 */
+	public static int getFrameEnd( byte[] buf, int offset, int end ) {
+		if ( offset >= end ) {
+			return -1;
+		}
+		int frameEnd = offset + 1 + ( buf[offset] & 0xFF );
+		return frameEnd <= end ? frameEnd : -1;
+	}
+}
@@ -0,0 +1,144 @@
+package org.nashua.tt151.libraries.parsers;
+
+/**
+ * The hello exchange used to agree on what a connection supports. After
+ * connecting the robot sends a hello with its protocol version and the
+ * capabilities it supports, and the dashboard answers with its own. Each side
+ * then only uses what both support. A peer that never answers is treated as
+ * supporting none of them, so older dashboards keep getting plain
+ * StringFormat messages.
+ *
+ * <pre>
+ * HELLO:[version]:[capabilities]:[probe]
+ * </pre>
+ *
+ * capabilities is the sum of the capability bits. probe is a character above
+ * 127; FastFormat values use the full 8 bits of each character, so FAST is
+ * only claimed if the probe arrives intact.
+ *
+ * @version 1.0
+ */
+public final class Handshake {
+
+	/**
+	 * Version of the protocol described by the capability bits
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * Numeric channel updates may be sent in FastFormat (see Framing.FAST)
+	 */
+	public static final int FAST = 1;
+
+	/**
+	 * Several messages may be sent in one batch frame (see Framing.BATCH)
+	 */
+	public static final int BATCH = 2;
+
+	/**
+	 * Channels may be registered with an ID and updated by ID only
+	 */
+	public static final int IDS = 4;
+
+	/**
+	 * Queries carry a sequence number as their first argument, which the
+	 * reply repeats as its own first argument
+	 */
+	public static final int SEQUENCE = 8;
+
+	/**
+	 * Telemetry may be sent in UDP datagrams to the same port number (see
+	 * Framing). Everything else stays on the TCP connection.
+	 */
+	public static final int UDP = 16;
+
+	/**
+	 * Both ends send heartbeats and answer the other's (see Heartbeat)
+	 */
+	public static final int HEARTBEAT = 32;
+
+	/**
+	 * Every capability this version supports
+	 */
+	public static final int ALL = FAST | BATCH | IDS | SEQUENCE | UDP | HEARTBEAT;
+
+	private static final String PREFIX = "HELLO:";
+	private static final char PROBE = (char) 0xE9;
+
+	// Prevent instantiation
+	private Handshake() {}
+
+	/**
+	 * @param capabilities The capabilities to advertise
+	 * @return A hello message
+	 */
+	public static String createMessage( int capabilities ) {
+		return PREFIX + VERSION + ":" + capabilities + ":" + PROBE;
+	}
+
+	public static boolean isHello( String msg ) {
+		return msg != null && msg.startsWith( PREFIX );
+	}
+
+	/**
+	 * @param msg A hello message
+	 * @return The protocol version of the peer, or -1 if the message is malformed
+	 */
+	public static int getVersion( String msg ) {
+		int end = msg.indexOf( ':', PREFIX.length() );
+		return end == -1 ? -1 : ValueParser.ParseInt( msg, PREFIX.length(), end );
+	}
+
+	/**
+	 * Reads the capabilities the peer advertised, without FAST if the probe
+	 * did not survive the trip
+	 *
+	 * @param msg A hello message
+	 * @return The usable capabilities of the peer, or 0 if the message is malformed
+	 */
+	public static int getCapabilities( String msg ) {
+		int start = msg.indexOf( ':', PREFIX.length() ) + 1;
+		int end = start == 0 ? -1 : msg.indexOf( ':', start );
+		if ( end == -1 ) {
+			return 0;
+		}
+		int capabilities = ValueParser.ParseInt( msg, start, end );
+		if ( capabilities < 0 ) {
+			return 0;
+		}
+		if ( end + 1 >= msg.length() || msg.charAt( end + 1 ) != PROBE ) {
+			capabilities &= ~FAST;
+		}
+		return capabilities & ALL;
+	}
+
+	/**
+	 * @param capabilities Capability bits
+	 * @return A short description such as FAST+BATCH+IDS+SEQ+UDP+BEAT, or STRING if there are none
+	 */
+	public static String describe( int capabilities ) {
+		if ( ( capabilities & ALL ) == 0 ) {
+			return "STRING";
+		}
+		StringBuffer sb = new StringBuffer( 16 );
+		if ( ( capabilities & FAST ) != 0 ) {
+			sb.append( "FAST" );
+		}
+		if ( ( capabilities & BATCH ) != 0 ) {
+			sb.append( sb.length() == 0 ? "BATCH" : "+BATCH" );
+		}
+		if ( ( capabilities & IDS ) != 0 ) {
+			sb.append( sb.length() == 0 ? "IDS" : "+IDS" );
+		}
+		if ( ( capabilities & SEQUENCE ) != 0 ) {
+			sb.append( sb.length() == 0 ? "SEQ" : "+SEQ" );
+		}
+		if ( ( capabilities & UDP ) != 0 ) {
+			sb.append( sb.length() == 0 ? "UDP" : "+UDP" );
+		}
+		if ( ( capabilities & HEARTBEAT ) != 0 ) {
+			sb.append( sb.length() == 0 ? "BEAT" : "+BEAT" );
+		}
+		return sb.toString();
+	}
+}
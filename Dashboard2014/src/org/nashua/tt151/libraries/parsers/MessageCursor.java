@@ -0,0 +1,376 @@
+package org.nashua.tt151.libraries.parsers;
+
+/**
+ * A reusable, read-only view over a StringFormat message. Calling reset walks
+ * the message once and records where the command, key, value and args start
+ * and end. No Strings are created until a caller asks for one, so a single
+ * cursor can be reused for every message read on a connection.
+ * A message starting with Framing.FAST holds a FastFormat message instead. Its
+ * header and value are decoded on reset and its args are read the same way.
+ * A FastMessage decoded by FastCodec can be read through a cursor too.
+ * A cursor is not thread safe; give each reading thread its own instance.
+ *
+ * @version 1.0
+ */
+public class MessageCursor {
+
+	// Only the first four colons are significant (command:key:value:args)
+	private static final int MAX_COLONS = 4;
+
+	private String msg;
+	private int length;
+	private int[] colons = new int[MAX_COLONS];
+	private int colonCount;
+	private int[] commas = new int[8];
+	private int argCount;
+	private int argsStart;
+	private int argsEnd;
+
+	// Lazily resolved fields, cleared on every reset
+	private ProtocolParsing.Key key;
+	private boolean keyResolved;
+	private String value;
+	private String[] args;
+
+	// Header of a FastFormat message, null for StringFormat
+	private ProtocolParsing.Header header;
+	private int fastWhole;
+	private int fastFrac;
+	private double fastValue;
+
+	public MessageCursor() {}
+
+	/**
+	 * Points the cursor at a new message and tokenizes it in a single pass.
+	 *
+	 * @param msg The message to tokenize
+	 * @return True if the message contains at least a command and a key
+	 */
+	public boolean reset( String msg ) {
+		clear( msg );
+
+		if ( length > 1 && msg.charAt( 0 ) == Framing.FAST ) {
+			return resetFast();
+		}
+
+		int commaCount = 0;
+		for ( int i = 0; i < length; i++ ) {
+			char c = msg.charAt( i );
+			if ( c == ':' ) {
+				colons[colonCount++] = i;
+				if ( colonCount == MAX_COLONS ) {
+					break;
+				}
+			} else if ( c == ',' && colonCount == 3 ) {
+				addComma( commaCount++, i );
+			}
+		}
+
+		if ( colonCount >= 3 ) {
+			argsStart = colons[2] + 1;
+			argsEnd = colonCount > 3 ? colons[3] : length;
+			if ( argsEnd > argsStart ) {
+				argCount = commaCount + 1;
+			}
+		}
+
+		return colonCount > 0;
+	}
+
+	/**
+	 * Points the cursor at a FastFormat message decoded by FastCodec. Only
+	 * its args are copied into a String, which getMessage returns and the arg
+	 * indexes refer to.
+	 *
+	 * @param fm The decoded message
+	 * @return True, FastCodec only decodes messages with a key
+	 */
+	public boolean reset( FastMessage fm ) {
+		clear( fm.getArgs() );
+		setFast( fm.getHeader(), fm.getWhole(), fm.getFrac() );
+		findFastArgs( 0 );
+		return true;
+	}
+
+	// Forgets the last message
+	private void clear( String msg ) {
+		this.msg = msg;
+		this.key = null;
+		this.keyResolved = false;
+		this.value = null;
+		this.args = null;
+		this.colonCount = 0;
+		this.argCount = 0;
+		this.argsStart = 0;
+		this.argsEnd = 0;
+		this.length = msg == null ? 0 : msg.length();
+		this.header = null;
+	}
+
+	// Decodes the header and value of a FastFormat message and finds its args
+	private boolean resetFast() {
+		ProtocolParsing.Header h = ProtocolParsing.Header.decode( msg.charAt( 1 ) );
+		if ( h.key == null || h.value == null || length < 2 + h.value.length ) {
+			return false;
+		}
+		int p = 2;
+		int whole;
+		int frac = 0;
+		if ( h.value == ProtocolParsing.Value.BYTE ) {
+			whole = msg.charAt( p ) & 0xFF;
+		} else if ( h.value == ProtocolParsing.Value.DOUBLE_BYTE ) {
+			whole = msg.charAt( p ) & 0xFF;
+			frac = msg.charAt( p + 1 ) & 0xFF;
+		} else {
+			whole = ( msg.charAt( p ) & 0xFF ) | ( ( msg.charAt( p + 1 ) & 0xFF ) << 8 );
+			if ( h.value == ProtocolParsing.Value.DOUBLE_SHORT ) {
+				frac = ( msg.charAt( p + 2 ) & 0xFF ) | ( ( msg.charAt( p + 3 ) & 0xFF ) << 8 );
+			}
+		}
+		setFast( h, whole, frac );
+		findFastArgs( p + h.value.length );
+		return true;
+	}
+
+	private void setFast( ProtocolParsing.Header h, int whole, int frac ) {
+		header = h;
+		fastWhole = whole;
+		fastFrac = frac;
+		fastValue = FastMessage.getDoubleValue( h, whole, frac );
+		key = h.key;
+		keyResolved = true;
+	}
+
+	// Records the commas of FastFormat args, which run from start to the end of msg
+	private void findFastArgs( int start ) {
+		argsStart = start;
+		argsEnd = length;
+		int commaCount = 0;
+		for ( int i = argsStart; i < argsEnd; i++ ) {
+			if ( msg.charAt( i ) == ',' ) {
+				addComma( commaCount++, i );
+			}
+		}
+		if ( argsEnd > argsStart ) {
+			argCount = commaCount + 1;
+		}
+	}
+
+	private void addComma( int index, int position ) {
+		if ( index == commas.length ) {
+			int[] grown = new int[commas.length * 2];
+			System.arraycopy( commas, 0, grown, 0, commas.length );
+			commas = grown;
+		}
+		commas[index] = position;
+	}
+
+	/**
+	 * @return True if the message is a FastFormat message
+	 */
+	public boolean isFast() {
+		return header != null;
+	}
+
+	/**
+	 * @return The message the cursor currently points at, which the arg
+	 *         indexes refer to. For a FastMessage this is only its args.
+	 */
+	public String getMessage() {
+		return msg;
+	}
+
+	public ProtocolParsing.Command getCommand() {
+		if ( header != null ) {
+			return header.command;
+		}
+		if ( length == 0 ) {
+			return ProtocolParsing.Command.Unknown;
+		}
+		return ProtocolParsing.StringParser.getCommand( msg );
+	}
+
+	/**
+	 * Resolves the key without creating a String for it.
+	 *
+	 * @return The key of the message, or null if it is missing or unknown
+	 */
+	public ProtocolParsing.Key getKey() {
+		if ( !keyResolved ) {
+			keyResolved = true;
+			if ( colonCount > 0 ) {
+				int start = colons[0] + 1;
+				int end = colonCount > 1 ? colons[1] : length;
+				key = ProtocolParsing.StringParser.getKey( msg, start, end );
+			}
+		}
+		return key;
+	}
+
+	public boolean hasValue() {
+		return header != null || colonCount >= 2;
+	}
+
+	/**
+	 * Parses the value as a number without creating a String for it
+	 *
+	 * @return The value, or Double.NaN if there is no value or it is not a number
+	 */
+	public double getDoubleValue() {
+		if ( header != null ) {
+			return fastValue;
+		}
+		return colonCount >= 2 ? ValueParser.ParseDouble( msg, getValueStart(), getValueEnd() ) : Double.NaN;
+	}
+
+	/**
+	 * @return Index of the first character of the value, or -1 if there is no
+	 *         value or the message is a FastFormat message
+	 */
+	public int getValueStart() {
+		return colonCount >= 2 ? colons[1] + 1 : -1;
+	}
+
+	/**
+	 * @return Index after the last character of the value, or -1 if there is no
+	 *         value or the message is a FastFormat message
+	 */
+	public int getValueEnd() {
+		if ( colonCount < 2 ) {
+			return -1;
+		}
+		return colonCount > 2 ? colons[2] : length;
+	}
+
+	/**
+	 * Gets the character at an offset into the value
+	 *
+	 * @param index Zero based offset into the value
+	 * @return The character, or 0 if the value is not that long
+	 */
+	public char getValueChar( int index ) {
+		if ( header != null ) {
+			String v = getValue();
+			return v != null && index >= 0 && index < v.length() ? v.charAt( index ) : 0;
+		}
+		int i = getValueStart() + index;
+		if ( colonCount < 2 || index < 0 || i >= getValueEnd() ) {
+			return 0;
+		}
+		return msg.charAt( i );
+	}
+
+	/**
+	 * Same as StringParser.getValue, but the String is only created on the
+	 * first call after a reset.
+	 *
+	 * @return The value of the message, or null if there is no value
+	 */
+	public String getValue() {
+		if ( value == null && header != null ) {
+			value = FastMessage.getValue( header, fastWhole, fastFrac );
+		} else if ( value == null && colonCount >= 2 ) {
+			value = msg.substring( getValueStart(), getValueEnd() );
+		}
+		return value;
+	}
+
+	public int getArgCount() {
+		return argCount;
+	}
+
+	/**
+	 * @param index Zero based index of the argument
+	 * @return Index of the first character of the argument in the message
+	 */
+	public int getArgStart( int index ) {
+		return index == 0 ? argsStart : commas[index - 1] + 1;
+	}
+
+	/**
+	 * @param index Zero based index of the argument
+	 * @return Index after the last character of the argument in the message
+	 */
+	public int getArgEnd( int index ) {
+		return index == argCount - 1 ? argsEnd : commas[index];
+	}
+
+	/**
+	 * Gets the character at an offset into an argument
+	 *
+	 * @param index Zero based index of the argument
+	 * @param offset Zero based offset into the argument
+	 * @return The character, or 0 if the argument does not exist or is not that long
+	 */
+	public char getArgChar( int index, int offset ) {
+		if ( index < 0 || index >= argCount || offset < 0 ) {
+			return 0;
+		}
+		int i = getArgStart( index ) + offset;
+		return i < getArgEnd( index ) ? msg.charAt( i ) : 0;
+	}
+
+	/**
+	 * Creates (once per reset) a String for a single argument
+	 *
+	 * @param index Zero based index of the argument
+	 * @return The argument, or null if it does not exist
+	 */
+	public String getArg( int index ) {
+		if ( index < 0 || index >= argCount ) {
+			return null;
+		}
+		if ( args == null ) {
+			args = new String[argCount];
+		}
+		if ( args[index] == null ) {
+			args[index] = msg.substring( getArgStart( index ), getArgEnd( index ) );
+		}
+		return args[index];
+	}
+
+	/**
+	 * Same as StringParser.getArgs
+	 *
+	 * @return An array of all arguments, or null if the message has none
+	 */
+	public String[] getArgs() {
+		if ( argCount == 0 ) {
+			return null;
+		}
+		for ( int i = 0; i != argCount; i++ ) {
+			getArg( i );
+		}
+		return args;
+	}
+
+	/**
+	 * Gives the message in StringFormat, for a reader that has not agreed to
+	 * FastFormat
+	 *
+	 * @return The message itself if it is StringFormat, otherwise a new
+	 *         StringFormat message with the same command, key, value and
+	 *         args, or null if the value cannot be decoded
+	 */
+	public String toStringFormat() {
+		if ( header == null ) {
+			return msg;
+		}
+		String v = getValue();
+		return v == null ? null : ProtocolParsing.StringParser.createMessage( header.command, key, v, getArgs() );
+	}
+
+	/**
+	 * Copies the message into a StringMessage, creating the value and args
+	 *
+	 * @param sm The StringMessage to fill
+	 * @return The filled StringMessage
+	 */
+	public StringMessage toMessage( StringMessage sm ) {
+		sm.setCommand( getCommand() );
+		sm.setKey( getKey() );
+		sm.setValue( getValue() );
+		sm.setArgs( getArgs() );
+		return sm;
+	}
+}
@@ -10,6 +10,14 @@ package org.nashua.tt151.libraries.parsers;
  */
 public final class ValueParser {
 	
+	// Powers of ten that are exact doubles, for parsing short decimals exactly
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	// Mantissas below this are exact doubles
+	private static final long MAX_EXACT_MANTISSA = 1000000000000000L;
+	
 	// Prevent Instantiation
 	private ValueParser() {}
 	
@@ -94,4 +102,85 @@ public final class ValueParser {
 		return d;
 	}
 	
+	/**
+	 * Parses an integer from part of a string without creating a substring.
+	 * Unlike ParseInt(String), nothing is printed when the number is invalid.
+	 * 
+	 * @param val String containing the number
+	 * @param start Index of the first character of the number
+	 * @param end Index after the last character of the number
+	 * @return The number, -1 is returned if the characters are not an integer or do not fit in one
+	 */
+	public static int ParseInt( String val, int start, int end ) {
+		if ( val == null || start < 0 || end > val.length() || start >= end ) {
+			return -1;
+		}
+		boolean negative = val.charAt( start ) == '-';
+		int i = negative ? start + 1 : start;
+		if ( i == end || end - i > 10 ) {
+			return -1;
+		}
+		long num = 0;
+		for ( ; i < end; i++ ) {
+			int digit = val.charAt( i ) - '0';
+			if ( digit < 0 || digit > 9 ) {
+				return -1;
+			}
+			num = num * 10 + digit;
+		}
+		if ( negative ) {
+			num = -num;
+		}
+		return num < Integer.MIN_VALUE || num > Integer.MAX_VALUE ? -1 : (int) num;
+	}
+	
+	/**
+	 * Parses a double from part of a string. Plain decimals with up to 15
+	 * digits, which is everything the robot sends, are parsed without creating
+	 * any objects and give the same result as Double.parseDouble. Anything else
+	 * falls back to Double.parseDouble. Unlike ParseDouble(String), nothing is
+	 * printed when the number is invalid.
+	 * 
+	 * @param val String containing the number
+	 * @param start Index of the first character of the number
+	 * @param end Index after the last character of the number
+	 * @return A double best represented by the characters, Double.NaN is returned upon error
+	 */
+	public static double ParseDouble( String val, int start, int end ) {
+		if ( val == null || start < 0 || end > val.length() || start >= end ) {
+			return Double.NaN;
+		}
+		boolean negative = val.charAt( start ) == '-';
+		int i = negative || val.charAt( start ) == '+' ? start + 1 : start;
+		long mantissa = 0;
+		int digits = 0;
+		int places = -1;
+		for ( ; i < end; i++ ) {
+			char c = val.charAt( i );
+			if ( c >= '0' && c <= '9' ) {
+				mantissa = mantissa * 10 + ( c - '0' );
+				digits++;
+				if ( places >= 0 ) {
+					places++;
+				}
+				if ( mantissa >= MAX_EXACT_MANTISSA ) {
+					break;
+				}
+			} else if ( c == '.' && places < 0 ) {
+				places = 0;
+			} else {
+				break;
+			}
+		}
+		if ( i == end && digits > 0 && places < POW10.length ) {
+			// Both parts are exact, so the division is rounded correctly
+			double d = places > 0 ? mantissa / POW10[places] : mantissa;
+			return negative ? -d : d;
+		}
+		try {
+			return Double.parseDouble( val.substring( start, end ) );
+		} catch ( NumberFormatException ex ) {
+			return Double.NaN;
+		}
+	}
 }
@@ -35,6 +35,8 @@ public class ConnectionModule extends JPanel {
 	}
 	
 	private State state;
+	private String mode = "";
+	private String stats = "";
 	private int scrollX = 0;
 	
 	public ConnectionModule() {
@@ -53,6 +55,28 @@ public class ConnectionModule extends JPanel {
 		return state;
 	}
 	
+	/**
+	 * @param mode Description of the protocol the connection uses, shown in the corner
+	 */
+	public void setMode( String mode ) {
+		this.mode = mode == null ? "" : mode;
+	}
+	
+	public String getMode() {
+		return mode;
+	}
+	
+	/**
+	 * @param stats Connection statistics, shown after the mode
+	 */
+	public void setStats( String stats ) {
+		this.stats = stats == null ? "" : stats;
+	}
+	
+	public String getStats() {
+		return stats;
+	}
+	
 	public void paintComponent( Graphics g ) {
 		g.setColor( state.c );
 		g.fillRect( 0, 0, getWidth(), getHeight() );
@@ -66,5 +90,16 @@ public class ConnectionModule extends JPanel {
 		}
 		scrollX = ( scrollX + 1 ) % dispWidth;
 		g.setFont( oldFont );
+		
+		// Draw mode and stats
+		String corner = stats.isEmpty() ? mode : mode + "  " + stats;
+		if ( !corner.isEmpty() ) {
+			fm = g.getFontMetrics();
+			int w = fm.stringWidth( corner ) + 6;
+			g.setColor( Color.GRAY.darker().darker() );
+			g.fillRect( getWidth() - w, 0, w, getHeight() );
+			g.setColor( Color.WHITE );
+			g.drawString( corner, getWidth() - w + 3, getHeight() / 2 + fm.getAscent() / 2 );
+		}
 	}
 }